@@ -0,0 +1,289 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.epistem.graffle.PListData;
+import org.epistem.graffle.PListParser;
+import org.epistem.graffle.ParseOptions;
+import org.epistem.io.IndentingPrintWriter;
+
+/**
+ * Converts the given xml plists, or the test diagrams, to binary (bplist00)
+ * plists and compares the binary parse with the xml parse, timing both.
+ *
+ * @author nickmain
+ */
+public class TestBinaryPList {
+    
+    private final static IndentingPrintWriter out = IndentingPrintWriter.SYSOUT;
+    
+    //seconds between the java epoch and the plist epoch of 2001-01-01
+    private static final long EPOCH_2001 = 978307200L;
+    
+    public static void main( String[] args ) throws Exception {
+        if( args.length == 0 ) {
+            args = new String[] { "test-diagrams/test.graffle", "test-diagrams/test-owl.graffle" };
+        }
+        
+        ParseOptions options  = new ParseOptions();
+        ParseOptions lazyData = new ParseOptions();
+        lazyData.setLazyData( true );
+        
+        boolean allSame = true;
+        
+        for( String name : args ) {
+            File file = new File( name );
+            Object xml = PListParser.parse( file, options );
+            
+            File binary = File.createTempFile( "test", ".bplist" );
+            try {
+                FileOutputStream bout = new FileOutputStream( binary );
+                try {
+                    bout.write( new Writer().write( xml ) );
+                }
+                finally {
+                    bout.close();
+                }
+                
+                boolean same = same( xml, PListParser.parse( binary, options ) )
+                            && same( xml, PListParser.parse( binary, lazyData ) );
+                allSame &= same;
+                
+                //warm up, then time a parse and a full walk of each
+                for( int i = 0; i < 20; i++ ) {
+                    walk( PListParser.parse( file, options ) );
+                    walk( PListParser.parse( binary, options ) );
+                }
+                
+                int runs = 50;
+                long start = System.nanoTime();
+                for( int i = 0; i < runs; i++ ) walk( PListParser.parse( file, options ) );
+                long xmlTime = ( System.nanoTime() - start ) / runs;
+                
+                start = System.nanoTime();
+                for( int i = 0; i < runs; i++ ) walk( PListParser.parse( binary, options ) );
+                long binaryTime = ( System.nanoTime() - start ) / runs;
+                
+                out.println( file.getName() + ( same ? " same" : " DIFFERENT" )
+                             + " xml: " + ( xmlTime / 1000 ) + "us"
+                             + " binary: " + ( binaryTime / 1000 ) + "us" );
+            }
+            finally {
+                binary.delete();
+            }
+        }
+        
+        out.flush();
+        if( ! allSame ) throw new AssertionError( "The binary and xml plists differ" );
+    }
+    
+    //touch every object, so that lazily decoded objects are decoded
+    @SuppressWarnings("unchecked")
+    private static int walk( Object value ) {
+        int count = 1;
+        if( value instanceof Map ) {
+            for( Object v : ((Map<String,Object>) value).values() ) count += walk( v );
+        }
+        else if( value instanceof List ) {
+            for( Object v : (List<Object>) value ) count += walk( v );
+        }
+        return count;
+    }
+    
+    private static byte[] bytes( Object data ) {
+        return data instanceof PListData ? ((PListData) data).bytes() : (byte[]) data;
+    }
+    
+    //deep equality, including data
+    @SuppressWarnings("unchecked")
+    private static boolean same( Object a, Object b ) {
+        if( ( a instanceof byte[] || a instanceof PListData )
+         && ( b instanceof byte[] || b instanceof PListData ) ) {
+            return Arrays.equals( bytes( a ), bytes( b ) );
+        }
+        
+        if( a instanceof Map && b instanceof Map ) {
+            Map<String,Object> mapA = (Map<String,Object>) a;
+            Map<String,Object> mapB = (Map<String,Object>) b;
+            if( ! mapA.keySet().equals( mapB.keySet() ) ) return false;
+            
+            for( String key : mapA.keySet() ) {
+                if( ! same( mapA.get( key ), mapB.get( key ) ) ) return false;
+            }
+            return true;
+        }
+        
+        if( a instanceof List && b instanceof List ) {
+            List<Object> listA = (List<Object>) a;
+            List<Object> listB = (List<Object>) b;
+            if( listA.size() != listB.size() ) return false;
+            
+            for( int i = 0; i < listA.size(); i++ ) {
+                if( ! same( listA.get( i ), listB.get( i ) ) ) return false;
+            }
+            return true;
+        }
+        
+        return a.equals( b );
+    }
+    
+    /**
+     * A bplist00 writer. Strings are written once and shared, so that the
+     * parser sees shared object references.
+     */
+    private static class Writer {
+        private final List<byte[]> objects = new ArrayList<byte[]>();
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        private final List<int[]> refLists = new ArrayList<int[]>(); //by object, null if none
+        private final List<Integer> markers = new ArrayList<Integer>();
+        
+        byte[] write( Object top ) throws IOException {
+            add( top );
+            
+            int count   = objects.size();
+            int refSize = count <= 0xff ? 1 : count <= 0xffff ? 2 : 4;
+            
+            //encode the containers now that the reference size is known
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream      data  = new DataOutputStream( bytes );
+            data.write( "bplist00".getBytes( "US-ASCII" ) );
+            
+            long[] offsets = new long[ count ];
+            for( int i = 0; i < count; i++ ) {
+                offsets[i] = data.size();
+                
+                int[] refs = refLists.get( i );
+                if( refs == null ) {
+                    data.write( objects.get( i ) );
+                    continue;
+                }
+                
+                int marker = markers.get( i );
+                writeHeader( data, marker, marker == 0xD ? refs.length / 2 : refs.length );
+                for( int ref : refs ) writeSized( data, ref, refSize );
+            }
+            
+            long offsetTable = data.size();
+            int  offsetSize  = offsetTable <= 0xff ? 1 : offsetTable <= 0xffff ? 2 : 4;
+            for( long offset : offsets ) writeSized( data, offset, offsetSize );
+            
+            data.write( new byte[6] );
+            data.writeByte( offsetSize );
+            data.writeByte( refSize );
+            data.writeLong( count );
+            data.writeLong( 0 ); //the top object
+            data.writeLong( offsetTable );
+            data.flush();
+            
+            return bytes.toByteArray();
+        }
+        
+        //add an object and its children, returning its reference
+        @SuppressWarnings("unchecked")
+        private int add( Object value ) throws IOException {
+            if( value instanceof String && strings.containsKey( value ) ) return strings.get( value );
+            
+            int ref = objects.size();
+            objects.add( null );
+            refLists.add( null );
+            markers.add( 0 );
+            
+            if( value instanceof Map ) {
+                Map<String,Object> map = (Map<String,Object>) value;
+                int[] refs = new int[ map.size() * 2 ];
+                int i = 0;
+                for( Map.Entry<String,Object> entry : map.entrySet() ) {
+                    refs[i] = add( entry.getKey() );
+                    refs[i + map.size()] = add( entry.getValue() );
+                    i++;
+                }
+                refLists.set( ref, refs );
+                markers.set( ref, 0xD );
+                return ref;
+            }
+            
+            if( value instanceof List ) {
+                List<Object> list = (List<Object>) value;
+                int[] refs = new int[ list.size() ];
+                for( int i = 0; i < refs.length; i++ ) refs[i] = add( list.get( i ) );
+                refLists.set( ref, refs );
+                markers.set( ref, 0xA );
+                return ref;
+            }
+            
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream      data  = new DataOutputStream( bytes );
+            
+            if( value instanceof Boolean ) {
+                data.writeByte( ((Boolean) value) ? 0x09 : 0x08 );
+            }
+            else if( value instanceof Integer || value instanceof Long ) {
+                writeInt( data, ((Number) value).longValue() );
+            }
+            else if( value instanceof Double ) {
+                data.writeByte( 0x23 );
+                data.writeDouble( (Double) value );
+            }
+            else if( value instanceof Date ) {
+                data.writeByte( 0x33 );
+                data.writeDouble( ((Date) value).getTime() / 1000.0 - EPOCH_2001 );
+            }
+            else if( value instanceof byte[] || value instanceof PListData ) {
+                byte[] b = bytes( value );
+                writeHeader( data, 0x4, b.length );
+                data.write( b );
+            }
+            else if( value instanceof String ) {
+                String s = (String) value;
+                boolean ascii = true;
+                for( int i = 0; i < s.length(); i++ ) ascii &= s.charAt( i ) < 0x80;
+                
+                writeHeader( data, ascii ? 0x5 : 0x6, s.length() );
+                if( ascii ) data.writeBytes( s );
+                else        data.writeChars( s );
+                
+                strings.put( s, ref );
+            }
+            else {
+                throw new IOException( "Cannot write " + value.getClass().getName() );
+            }
+            
+            data.flush();
+            objects.set( ref, bytes.toByteArray() );
+            return ref;
+        }
+        
+        //the marker of a variable length object, with its count
+        private static void writeHeader( DataOutputStream data, int type, int count ) throws IOException {
+            if( count < 15 ) {
+                data.writeByte( ( type << 4 ) | count );
+            }
+            else {
+                data.writeByte( ( type << 4 ) | 0xf );
+                writeInt( data, count );
+            }
+        }
+        
+        //an int object - negative values are always 8 bytes
+        private static void writeInt( DataOutputStream data, long value ) throws IOException {
+            if     ( value >= 0 && value <= 0xff   ) { data.writeByte( 0x10 ); data.writeByte( (int) value ); }
+            else if( value >= 0 && value <= 0xffff ) { data.writeByte( 0x11 ); data.writeShort( (int) value ); }
+            else if( value >= 0 && value <= 0xffffffffL ) { data.writeByte( 0x12 ); data.writeInt( (int) value ); }
+            else { data.writeByte( 0x13 ); data.writeLong( value ); }
+        }
+        
+        private static void writeSized( DataOutputStream data, long value, int size ) throws IOException {
+            for( int shift = ( size - 1 ) * 8; shift >= 0; shift -= 8 ) {
+                data.writeByte( (int) ( value >>> shift ) );
+            }
+        }
+    }
+}
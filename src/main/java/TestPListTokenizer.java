@@ -0,0 +1,90 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.epistem.graffle.PListParser;
+import org.epistem.graffle.ParseOptions;
+import org.epistem.io.IndentingPrintWriter;
+
+/**
+ * Compares the plist tokenizer with the SAX parser on the given files, or
+ * the test diagrams, and times both.
+ *
+ * @author nickmain
+ */
+public class TestPListTokenizer {
+    
+    private final static IndentingPrintWriter out = IndentingPrintWriter.SYSOUT;
+    
+    public static void main( String[] args ) throws Exception {
+        if( args.length == 0 ) {
+            args = new String[] { "test-diagrams/test.graffle", "test-diagrams/test-owl.graffle" };
+        }
+        
+        ParseOptions tokenizer = new ParseOptions();
+        ParseOptions sax       = new ParseOptions();
+        sax.setSAX( true );
+        
+        boolean allSame = true;
+        
+        for( String name : args ) {
+            File file = new File( name );
+            
+            boolean same = same( PListParser.parse( file, tokenizer ), PListParser.parse( file, sax ) );
+            allSame &= same;
+            
+            //warm up, then time
+            for( int i = 0; i < 20; i++ ) {
+                PListParser.parse( file, tokenizer );
+                PListParser.parse( file, sax );
+            }
+            
+            int runs = 50;
+            long start = System.nanoTime();
+            for( int i = 0; i < runs; i++ ) PListParser.parse( file, sax );
+            long saxTime = ( System.nanoTime() - start ) / runs;
+            
+            start = System.nanoTime();
+            for( int i = 0; i < runs; i++ ) PListParser.parse( file, tokenizer );
+            long tokenizerTime = ( System.nanoTime() - start ) / runs;
+            
+            out.println( file.getName() + ( same ? " same" : " DIFFERENT" )
+                         + " sax: " + ( saxTime / 1000 ) + "us"
+                         + " tokenizer: " + ( tokenizerTime / 1000 ) + "us" );
+        }
+        
+        out.flush();
+        if( ! allSame ) throw new AssertionError( "The tokenizer and the SAX parser differ" );
+    }
+    
+    //deep equality, including data
+    @SuppressWarnings("unchecked")
+    private static boolean same( Object a, Object b ) {
+        if( a instanceof byte[] && b instanceof byte[] ) return Arrays.equals( (byte[]) a, (byte[]) b );
+        
+        if( a instanceof Map && b instanceof Map ) {
+            Map<String,Object> mapA = (Map<String,Object>) a;
+            Map<String,Object> mapB = (Map<String,Object>) b;
+            if( ! mapA.keySet().equals( mapB.keySet() ) ) return false;
+            
+            for( String key : mapA.keySet() ) {
+                if( ! same( mapA.get( key ), mapB.get( key ) ) ) return false;
+            }
+            return true;
+        }
+        
+        if( a instanceof List && b instanceof List ) {
+            List<Object> listA = (List<Object>) a;
+            List<Object> listB = (List<Object>) b;
+            if( listA.size() != listB.size() ) return false;
+            
+            for( int i = 0; i < listA.size(); i++ ) {
+                if( ! same( listA.get( i ), listB.get( i ) ) ) return false;
+            }
+            return true;
+        }
+        
+        return a.equals( b );
+    }
+}
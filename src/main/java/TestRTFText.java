@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.rtf.RTFEditorKit;
+
+import org.epistem.graffle.PListParser;
+import org.epistem.graffle.RTFCache;
+import org.epistem.io.IndentingPrintWriter;
+
+/**
+ * Compares the text extracted from RTF with that from RTFEditorKit - for
+ * the RTF in the given documents, or the test diagrams, and then for
+ * randomly generated RTF in the style written by OmniGraffle.
+ *
+ * @author nickmain
+ */
+public class TestRTFText {
+    
+    private final static IndentingPrintWriter out = IndentingPrintWriter.SYSOUT;
+    
+    private static final int RANDOM_COUNT = 100000;
+    
+    private static final String HEADER =
+        "{\\rtf1\\ansi\\cocoartf1038\n{\\fonttbl\\f0\\fswiss\\fcharset0 Helvetica;}\n"
+        + "{\\colortbl;\\red255\\green255\\blue255;}\n"
+        + "\\pard\\tx560\\ql\\qnatural\\pardirnatural\n\n\\f0\\fs24 \\cf0 ";
+    
+    private static final String[] WORDS = {
+        "par", "tab", "emdash", "endash", "bullet", "lquote", "rquote", "ldblquote",
+        "rdblquote", "b", "b0", "i", "ul", "ulnone", "fs24", "cf0", "f0", "expnd0",
+        "kerning1", "qc", "pard", "line", "cell", "sect", "ltrmark", "zwj", "enspace",
+        "emspace", "uc0", "uc1", "uc2"
+    };
+    
+    private static final String[] SYMBOLS = { "\\\\", "\\{", "\\}", "\\~", "\\-", "\\_" };
+    
+    private static final String[] UNICODE_FALLBACKS = { "?", " ?", " ", "\\'3f" };
+    
+    private static Random random;
+    
+    public static void main( String[] args ) throws Exception {
+        if( args.length == 0 ) {
+            args = new String[] { "test-diagrams/test.graffle", "test-diagrams/test-owl.graffle" };
+        }
+        
+        List<String> rtfs = new ArrayList<String>();
+        for( String arg : args ) {
+            collect( PListParser.parse( new File( arg ) ), rtfs );
+        }
+        
+        //the documents, timed
+        int differences = 0;
+        long kitTime  = 0;
+        long fastTime = 0;
+        for( String rtf : rtfs ) {
+            long start = System.nanoTime();
+            String expected = kitText( rtf );
+            kitTime += System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            String actual = new RTFCache( 1 ).toText( rtf );
+            fastTime += System.nanoTime() - start;
+            
+            if( ! compare( rtf, expected, actual ) ) differences++;
+        }
+        
+        out.println( rtfs.size() + " RTF strings, " + differences + " different" );
+        out.println( "RTFEditorKit " + ( kitTime / 1000000 ) + "ms, RTFText " + ( fastTime / 1000000 ) + "ms" );
+        
+        //random RTF, avoiding the cases where the text differs by design
+        random = new Random( 1 );
+        int randomDifferences = 0;
+        RTFCache cache = new RTFCache( 1024 );
+        for( int i = 0; i < RANDOM_COUNT; i++ ) {
+            String rtf = HEADER + body( 0 ) + "}";
+            
+            String expected;
+            try {
+                expected = kitText( rtf );
+            }
+            catch( Exception ex ) {
+                continue; //not RTF that the kit can read
+            }
+            
+            if( ! compare( rtf, expected, cache.toText( rtf ) ) ) randomDifferences++;
+        }
+        
+        out.println( RANDOM_COUNT + " random RTF strings, " + randomDifferences + " different" );
+        out.flush();
+        
+        if( differences + randomDifferences > 0 ) {
+            throw new AssertionError( "The RTF text differs from that of RTFEditorKit" );
+        }
+    }
+    
+    //the text from RTFEditorKit, without the final newline
+    private static String kitText( String rtf ) throws Exception {
+        DefaultStyledDocument doc = new DefaultStyledDocument();
+        new RTFEditorKit().read( new StringReader( rtf ), doc, 0 );
+        
+        String text = doc.getText( 0, doc.getLength() );
+        if( text.endsWith( "\n" ) ) text = text.substring( 0, text.length() - 1 );
+        return text;
+    }
+    
+    private static boolean compare( String rtf, String expected, String actual ) {
+        if( expected.equals( actual ) ) return true;
+        
+        out.println( "DIFFERENT: " + escape( rtf ) );
+        out.println( "   kit: " + escape( expected ) );
+        out.println( "  fast: " + escape( actual ) );
+        return false;
+    }
+    
+    private static String escape( String s ) {
+        StringBuilder buf = new StringBuilder();
+        for( char c : s.toCharArray() ) {
+            if( c < 32 || c > 126 ) buf.append( String.format( "\\u%04x", (int) c ) );
+            else buf.append( c );
+        }
+        return buf.toString();
+    }
+    
+    //random RTF content, with groups nested up to three deep
+    private static String body( int depth ) {
+        StringBuilder buf = new StringBuilder();
+        
+        int count = random.nextInt( 8 );
+        for( int i = 0; i < count; i++ ) {
+            switch( random.nextInt( 14 ) ) {
+                case 0:
+                case 1:
+                    int length = 1 + random.nextInt( 6 );
+                    for( int j = 0; j < length; j++ ) {
+                        buf.append( random.nextInt( 3 ) == 0 ? ' ' : (char) ( 'a' + random.nextInt( 26 ) ) );
+                    }
+                    break;
+                
+                case 2:
+                    buf.append( SYMBOLS[ random.nextInt( SYMBOLS.length ) ] );
+                    break;
+                
+                case 3:
+                    //no a0 - which gives a non-breaking space rather than nothing
+                    buf.append( String.format( "\\'%02x", 0x20 + random.nextInt( 0x60 ) ) );
+                    buf.append( String.format( "\\'%02x", 0xa1 + random.nextInt( 0x5f ) ) );
+                    break;
+                
+                case 4:
+                    int c = random.nextInt( 3 ) == 0 ?
+                                -( random.nextInt( 30000 ) + 1 ) :
+                                0x100 + random.nextInt( 0xd000 );
+                    buf.append( "\\u" ).append( c );
+                    buf.append( UNICODE_FALLBACKS[ random.nextInt( UNICODE_FALLBACKS.length ) ] );
+                    break;
+                
+                case 5:
+                    buf.append( "\\" ).append( WORDS[ random.nextInt( WORDS.length ) ] );
+                    if( random.nextBoolean() ) buf.append( " " );
+                    break;
+                
+                case 6:  buf.append( "\\\n" ); break;
+                case 7:  buf.append( "\n" ); break;
+                case 8:  if( depth < 3 ) buf.append( "{\\i " ).append( body( depth + 1 ) ).append( "}" ); break;
+                case 9:  if( depth < 3 ) buf.append( "{\\*\\foo " ).append( body( depth + 1 ) ).append( "}" ); break;
+                case 10: if( depth < 3 ) buf.append( "{\\fonttbl\\f0\\fnil Verdana;}" ); break;
+                case 11: if( depth < 3 ) buf.append( "{" ).append( body( depth + 1 ) ).append( "}" ); break;
+                case 12: buf.append( "\\zzunknown" ).append( random.nextInt( 100 ) ).append( " " ); break;
+                case 13: buf.append( "\\cf0 " ); break;
+            }
+        }
+        
+        return buf.toString();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void collect( Object value, List<String> rtfs ) {
+        if( value instanceof String ) {
+            if( ((String) value).startsWith( "{\\rtf" ) ) rtfs.add( (String) value );
+        }
+        else if( value instanceof Map ) {
+            for( Object v : ((Map<String,Object>) value).values() ) collect( v, rtfs );
+        }
+        else if( value instanceof List ) {
+            for( Object v : (List<Object>) value ) collect( v, rtfs );
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.epistem.io.IndentingPrintWriter;
+import org.epistem.util.SpatialIndex;
+
+/**
+ * Compares the spatial index with brute force Rectangle2D tests on random
+ * layouts - including empty rectangles, NaN and infinite edges, touching
+ * edges and coordinates large enough for widths to be lost to rounding.
+ *
+ * @author nickmain
+ */
+public class TestSpatialIndex {
+    
+    private final static IndentingPrintWriter out = IndentingPrintWriter.SYSOUT;
+    
+    private static final int LAYOUTS = 3000;
+    private static final int QUERIES = 20; //region queries per layout
+    
+    private static final Random random = new Random( 1 );
+    
+    public static void main( String[] args ) {
+        int failures = 0;
+        
+        for( int layout = 0; layout < LAYOUTS; layout++ ) {
+            List<Rectangle2D> bounds = randomLayout();
+            SpatialIndex index = new SpatialIndex( bounds );
+            
+            if( ! pairs( bounds ).equals( pairs( index ) ) ) {
+                failures++;
+                out.println( "DIFFERENT pairs: " + bounds );
+            }
+            
+            for( int q = 0; q < QUERIES; q++ ) {
+                Rectangle2D area  = randomArea();
+                Point2D     point = randomPoint();
+                
+                Set<Integer> within     = new TreeSet<Integer>();
+                Set<Integer> containing = new TreeSet<Integer>();
+                for( int i = 0; i < bounds.size(); i++ ) {
+                    if( area.contains( bounds.get( i ) ) ) within.add( i );
+                    if( bounds.get( i ).contains( point ) ) containing.add( i );
+                }
+                
+                if( ! within.equals( toSet( index.within( area ) ) ) ) {
+                    failures++;
+                    out.println( "DIFFERENT within " + area + ": " + bounds );
+                }
+                
+                if( ! containing.equals( toSet( index.containing( point ) ) ) ) {
+                    failures++;
+                    out.println( "DIFFERENT containing " + point + ": " + bounds );
+                }
+            }
+        }
+        
+        out.println( LAYOUTS + " random layouts, " + failures + " different" );
+        out.flush();
+        
+        if( failures > 0 ) throw new AssertionError( "The spatial index differs from Rectangle2D" );
+    }
+    
+    //the intersecting and containing pairs, by brute force
+    private static Set<String> pairs( List<Rectangle2D> bounds ) {
+        Set<String> pairs = new TreeSet<String>();
+        for( int a = 0; a < bounds.size(); a++ ) {
+            for( int b = 0; b < bounds.size(); b++ ) {
+                if( a == b ) continue;
+                if( bounds.get( a ).intersects( bounds.get( b ) ) ) pairs.add( "intersects " + a + " " + b );
+                if( bounds.get( a ).contains  ( bounds.get( b ) ) ) pairs.add( "contains "   + a + " " + b );
+            }
+        }
+        return pairs;
+    }
+    
+    //the intersecting and containing pairs, from the pairs that the index
+    //visits - which must each be visited once
+    private static Set<String> pairs( final SpatialIndex index ) {
+        final Set<String> pairs   = new TreeSet<String>();
+        final Set<String> visited = new TreeSet<String>();
+        
+        index.overlappingPairs( new SpatialIndex.PairVisitor() {
+            public void visit( int a, int b ) {
+                if( ! visited.add( Math.min( a, b ) + " " + Math.max( a, b ) ) ) {
+                    pairs.add( "visited twice " + a + " " + b );
+                }
+                
+                if( index.intersects( a, b ) ) {
+                    pairs.add( "intersects " + a + " " + b );
+                    pairs.add( "intersects " + b + " " + a );
+                }
+                if( index.contains( a, b ) ) pairs.add( "contains " + a + " " + b );
+                if( index.contains( b, a ) ) pairs.add( "contains " + b + " " + a );
+            }
+        });
+        
+        return pairs;
+    }
+    
+    private static Set<Integer> toSet( int[] indices ) {
+        Set<Integer> set = new TreeSet<Integer>();
+        for( int i : indices ) set.add( i );
+        return set;
+    }
+    
+    //rectangles on a small grid, so that many share or touch edges
+    private static List<Rectangle2D> randomLayout() {
+        List<Rectangle2D> bounds = new ArrayList<Rectangle2D>();
+        
+        int count = random.nextInt( 60 );
+        for( int i = 0; i < count; i++ ) {
+            double x = random.nextInt( 20 );
+            double y = random.nextInt( 20 );
+            double w = random.nextInt( 8 ) - 1;
+            double h = random.nextInt( 8 ) - 1;
+            
+            if( random.nextInt( 20 ) == 0 ) w = Double.NaN;
+            if( random.nextInt( 20 ) == 0 ) x = Double.NaN;
+            if( random.nextInt( 10 ) == 0 ) { x += 0.1; w += 0.2; }
+            if( random.nextInt( 30 ) == 0 ) { x = 1e17; w = 1; } //width lost to rounding
+            if( random.nextInt( 50 ) == 0 ) { x = Double.NEGATIVE_INFINITY; w = Double.POSITIVE_INFINITY; }
+            
+            bounds.add( new Rectangle2D.Double( x, y, w, h ) );
+        }
+        
+        return bounds;
+    }
+    
+    private static Rectangle2D randomArea() {
+        if( random.nextInt( 40 ) == 0 ) return new Rectangle2D.Double( 1e17, 0, 2, 30 );
+        
+        return new Rectangle2D.Double( random.nextInt( 22 ) - 1 + ( random.nextBoolean() ? 0.1 : 0 ),
+                                       random.nextInt( 22 ) - 1,
+                                       random.nextInt( 15 ) - 1,
+                                       random.nextInt( 15 ) - 1 );
+    }
+    
+    private static Point2D randomPoint() {
+        if( random.nextInt( 40 ) == 0 ) return new Point2D.Double( 1e17, random.nextInt( 20 ) );
+        
+        return new Point2D.Double( random.nextInt( 44 ) / 2.0 - 1, random.nextInt( 44 ) / 2.0 - 1 );
+    }
+}
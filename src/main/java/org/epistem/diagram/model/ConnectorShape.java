@@ -52,6 +52,6 @@ public class ConnectorShape extends Shape implements Connector {
 
     @Override
     public String toString() {
-        return "Connector '" + text + "'";
+        return "Connector '" + text() + "'";
     }
 }
@@ -2,9 +2,13 @@ package org.epistem.diagram.model;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Executor;
 
+import org.epistem.graffle.OGGraphic;
 import org.epistem.graffle.OGSheet;
 import org.epistem.graffle.OmniGraffleDoc;
+import org.epistem.graffle.RTFCache;
+import org.epistem.graffle.RichText;
 
 /**
  * An abstracted model of a diagram document
@@ -44,6 +48,14 @@ public class Diagram {
     }
     
     public Diagram( OmniGraffleDoc doc ) {
+        this( doc, null );
+    }
+    
+    /**
+     * @param executor if not null, the text and notes of all the pages are
+     *                 decoded on it, concurrently, before the pages are built
+     */
+    public Diagram( OmniGraffleDoc doc, Executor executor ) {
     
         file = doc.file();
         
@@ -58,8 +70,29 @@ public class Diagram {
         subject       = doc.subject();
         version       = doc.version();        
         
+        Map<String, RichText> decoded = executor != null ? decodeRTF( doc, executor ) : null;
+        
         for( OGSheet sheet : doc.sheets() ) {        
-            pages.add( new Page( sheet, this ) );
+            pages.add( new Page( sheet, this, decoded ) );
+        }
+    }
+    
+    //decode the RTF of all the sheets
+    private static Map<String, RichText> decodeRTF( OmniGraffleDoc doc, Executor executor ) {
+        Set<String> rtfs = new HashSet<String>();
+        for( OGSheet sheet : doc.sheets() ) {
+            rtfs.add( sheet.notesRTF() );
+            collectRTF( sheet.graphics(), rtfs );
+        }
+        
+        return RTFCache.SHARED.decodeAll( rtfs, executor );
+    }
+    
+    private static void collectRTF( List<OGGraphic> graphics, Set<String> rtfs ) {
+        for( OGGraphic g : graphics ) {
+            rtfs.add( g.textRTF() );
+            rtfs.add( g.notesRTF() );
+            collectRTF( g.graphics(), rtfs );
         }
     }
 }
@@ -7,6 +7,8 @@ import java.util.HashSet;
 import java.util.Map;
 
 import org.epistem.graffle.OGGraphic;
+import org.epistem.graffle.RTFCache;
+import org.epistem.graffle.RichText;
 
 /**
  * Base graphic
@@ -16,7 +18,6 @@ import org.epistem.graffle.OGGraphic;
 public abstract class Graphic {
 
     public final Map<String,Object> userData = new HashMap<String, Object>();
-    public final Metadata metadata;
     public final boolean  isSolid;
     public final Page     page;
     public final Collection<Connector> incoming = new HashSet<Connector>();
@@ -26,6 +27,10 @@ public abstract class Graphic {
     
     protected OGGraphic ogg;
     
+    private volatile Metadata metadata;
+    private String notesRTF; //released once the metadata is made
+    private Map<String,String> properties;
+    
     abstract void init();
     
     public abstract void accept( DiagramVisitor visitor );
@@ -35,8 +40,16 @@ public abstract class Graphic {
         this.ogg = ogg;
         this.page = page;
         this.parent = parent;
-        metadata = new Metadata( ogg.notes(), ogg.userProperties() );
-        isSolid = ogg.strokePattern() == 0;
+        notesRTF   = ogg.notesRTF();
+        properties = ogg.userProperties();
+        
+        RichText notes = page.decoded( notesRTF );
+        if( notes != null ) {
+            metadata   = new Metadata( notes.text, properties );
+            notesRTF   = null;
+            properties = null;
+        }
+        isSolid = ogg.style().solid;
         
         page.graphics.put( ogg.id(), this );
         
@@ -45,6 +58,24 @@ public abstract class Graphic {
         y = bounds.getCenterY();
     }
     
+    /**
+     * Get the notes and user properties, decoded when first needed
+     */
+    public Metadata metadata() {
+        Metadata metadata = this.metadata;
+        if( metadata != null ) return metadata;
+        
+        synchronized( this ) {
+            if( this.metadata == null ) {
+                this.metadata = new Metadata( RTFCache.SHARED.toText( notesRTF ), properties );
+                notesRTF   = null;
+                properties = null;
+            }
+            
+            return this.metadata;
+        }
+    }
+    
     static Graphic make( OGGraphic ogg, GraphicContainer parent, Page page ) {
         switch( ogg.graphicClass() ) {
             case Group:        return new Group( ogg, parent, page );
@@ -39,7 +39,7 @@ public class Group extends Shape implements GraphicContainer {
         
         List<OGGraphic> kids = ogg.graphics();
         if( ogg.isSubgraph() ) {            
-            kids.remove( kids.size() - 1 );
+            kids = kids.subList( 0, kids.size() - 1 );
         }
         
         for( OGGraphic g : kids ) {
@@ -49,6 +49,6 @@ public class Group extends Shape implements GraphicContainer {
     
     @Override
     public String toString() {
-        return "Group '" + text + "'";
+        return "Group '" + text() + "'";
     }
 }
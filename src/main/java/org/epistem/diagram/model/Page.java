@@ -1,9 +1,14 @@
 package org.epistem.diagram.model;
 
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.*;
 
 import org.epistem.graffle.OGGraphic;
 import org.epistem.graffle.OGSheet;
+import org.epistem.graffle.RTFCache;
+import org.epistem.graffle.RichText;
+import org.epistem.util.IntMap;
 
 /**
  * A page within a document
@@ -15,7 +20,6 @@ public class Page implements GraphicContainer {
     public final Map<String,Object> userData = new HashMap<String, Object>();
     public final String title;
     public final Collection<Graphic> rootGraphics = new HashSet<Graphic>();
-    public final Metadata metadata;
     public final Diagram  diagram;
     
     /** @see java.lang.Iterable#iterator() */
@@ -36,15 +40,57 @@ public class Page implements GraphicContainer {
         visitor.visitPageEnd( this );
     }
     
-    Map<Integer, Graphic> graphics;
+    IntMap<Graphic> graphics;
+    Map<String, RichText> decoded; //the prepass decoding of the RTF, if any
     
-    Page( OGSheet sheet, Diagram diagram ) {
+    private volatile Metadata metadata;
+    private volatile ShapeIndex shapeIndex;
+    private String notesRTF; //released once the metadata is made
+    private Map<String,String> properties;
+    
+    /**
+     * Get the prepass decoding of some RTF
+     * @return null if the RTF was not decoded by the prepass
+     */
+    RichText decoded( String rtf ) {
+        if( decoded == null || rtf == null ) return null;
+        return decoded.get( rtf );
+    }
+    
+    /**
+     * Get the notes and user properties, decoded when first needed
+     */
+    public Metadata metadata() {
+        Metadata metadata = this.metadata;
+        if( metadata != null ) return metadata;
+        
+        synchronized( this ) {
+            if( this.metadata == null ) {
+                this.metadata = new Metadata( RTFCache.SHARED.toText( notesRTF ), properties );
+                notesRTF   = null;
+                properties = null;
+            }
+            
+            return this.metadata;
+        }
+    }
+    
+    Page( OGSheet sheet, Diagram diagram, Map<String, RichText> decoded ) {
         
         title = sheet.title();
         this.diagram = diagram;
-        metadata = new Metadata( sheet.notes(), sheet.userProperties() );
+        this.decoded = decoded;
+        notesRTF   = sheet.notesRTF();
+        properties = sheet.userProperties();
+        
+        RichText notes = decoded( notesRTF );
+        if( notes != null ) {
+            metadata   = new Metadata( notes.text, properties );
+            notesRTF   = null;
+            properties = null;
+        }
         
-        graphics = new HashMap<Integer, Graphic>();
+        graphics = new IntMap<Graphic>();
         for( OGGraphic g : sheet.graphics()) {
             rootGraphics.add( Graphic.make( g, this, this ) );            
         }
@@ -55,31 +101,38 @@ public class Page implements GraphicContainer {
         }
         
         graphics = null;
+        this.decoded = null;
+    }
+    
+    /**
+     * Get the spatial index of the root shapes, built when first needed
+     */
+    ShapeIndex shapeIndex() {
+        ShapeIndex shapeIndex = this.shapeIndex;
+        if( shapeIndex != null ) return shapeIndex;
         
-        for( Graphic g : rootGraphics ) {
-            if( ! (g instanceof Shape )) continue;
-            Shape s = (Shape) g;
-            
-            for( Graphic g2 : rootGraphics ) {
-                if( g == g2 ) continue;                
-                if( ! (g2 instanceof Shape )) continue;
-                Shape s2 = (Shape) g2;
-                
-                if( s.bounds.intersects( s2.bounds ) ) {
-                    s.intersectingShapes.add( s2 );
-                    s2.intersectingShapes.add( s );
-                }
-                
-                if( s.bounds.contains( s2.bounds ) ) {
-                    s.containedShapes.add( s2 );
-                    s2.containingShapes.add( s );
-                }
-
-                if( s2.bounds.contains( s.bounds ) ) {
-                    s2.containedShapes.add( s );
-                    s.containingShapes.add( s2 );
-                }
+        synchronized( this ) {
+            if( this.shapeIndex == null ) {
+                this.shapeIndex = new ShapeIndex( this );
             }
+            
+            return this.shapeIndex;
         }
-    }       
+    }
+    
+    /**
+     * Get the root shapes whose bounds are within an area
+     * @return immutable, ordered by left edge
+     */
+    public Collection<Shape> shapesIn( Rectangle2D area ) {
+        return shapeIndex().within( area );
+    }
+    
+    /**
+     * Get the root shapes whose bounds contain a point
+     * @return immutable, ordered by left edge
+     */
+    public Collection<Shape> shapesAt( Point2D point ) {
+        return shapeIndex().at( point );
+    }
 }
@@ -2,12 +2,11 @@ package org.epistem.diagram.model;
 
 import java.awt.geom.Rectangle2D;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 
-import javax.swing.text.DefaultStyledDocument;
-
 import org.epistem.graffle.OGGraphic;
+import org.epistem.graffle.RTFCache;
+import org.epistem.graffle.RichText;
 
 /**
  * A shape
@@ -16,12 +15,13 @@ import org.epistem.graffle.OGGraphic;
  */
 public class Shape extends Graphic {
     
-    public final String text;
-    public final DefaultStyledDocument richText;
     public final Rectangle2D bounds;
-    public final Collection<Shape> containedShapes    = new HashSet<Shape>();
-    public final Collection<Shape> intersectingShapes = new HashSet<Shape>();
-    public final Collection<Shape> containingShapes   = new HashSet<Shape>();
+    
+    private volatile boolean textDecoded;
+    private String   textRTF; //released once decoded
+    private RichText richText;
+    
+    int indexNumber = -1; //the number of a root shape within the page's ShapeIndex
     
     /**
      * Accept a visitor
@@ -40,11 +40,71 @@ public class Shape extends Graphic {
             g = kids.get( kids.size() - 1 );
         }
         
-        this.text     = g.text();
-        this.richText = g.styledText();
-        this.bounds   = g.bounds();
+        this.textRTF = g.textRTF();
+        this.bounds  = g.bounds();
+        
+        RichText decoded = page.decoded( textRTF );
+        if( decoded != null ) {
+            richText    = decoded;
+            textRTF     = null;
+            textDecoded = true;
+        }
+    }
+    
+    /**
+     * Get the text, decoded when first needed
+     * @return null if there is no text
+     */
+    public String text() {
+        RichText richText = richText();
+        return richText != null ? richText.text : null;
+    }
+    
+    /**
+     * Get the text with its character formatting, decoded when first needed
+     * @return null if there is no text
+     */
+    public RichText richText() {
+        if( ! textDecoded ) {
+            synchronized( this ) {
+                if( ! textDecoded ) {
+                    richText    = RTFCache.SHARED.richText( textRTF );
+                    textRTF     = null;
+                    textDecoded = true;
+                }
+            }
+        }
+        
+        return richText;
     }
 
+    /**
+     * Get the root shapes on the page that this shape contains. The spatial
+     * relations of all the root shapes of the page are worked out the first
+     * time any of them is needed.
+     * 
+     * @return immutable, empty if this is not a root shape
+     */
+    public Collection<Shape> containedShapes() {
+        return page.shapeIndex().contained( this );
+    }
+    
+    /**
+     * Get the root shapes on the page that intersect this shape
+     * @return immutable, empty if this is not a root shape
+     */
+    public Collection<Shape> intersectingShapes() {
+        return page.shapeIndex().intersecting( this );
+    }
+    
+    /**
+     * Get the root shapes on the page that contain this shape
+     * @return immutable, empty if this is not a root shape
+     */
+    public Collection<Shape> containingShapes() {
+        return page.shapeIndex().containing( this );
+    }
+    
     /** @see org.epistem.diagram.model.Graphic#init() */
     @Override
     void init() {
@@ -59,6 +119,6 @@ public class Shape extends Graphic {
     
     @Override
     public String toString() {
-        return "Shape '" + text + "'";
+        return "Shape '" + text() + "'";
     }
 }
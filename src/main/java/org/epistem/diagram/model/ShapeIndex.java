@@ -0,0 +1,179 @@
+package org.epistem.diagram.model;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.epistem.util.SpatialIndex;
+
+/**
+ * The spatial relations between the root shapes of a page, worked out
+ * together the first time any shape asks for them. Each relation is held
+ * as rows of shape numbers in a single array, and the collections handed
+ * out are immutable views of the rows.
+ *
+ * @author nickmain
+ */
+final class ShapeIndex {
+    
+    private final Shape[] shapes;
+    private final SpatialIndex index;
+    
+    private final Relation intersecting = new Relation();
+    private final Relation contained    = new Relation(); //shapes that each shape contains
+    private final Relation containing   = new Relation(); //shapes that contain each shape
+    
+    ShapeIndex( Page page ) {
+        List<Shape>       shapeList = new ArrayList<Shape>();
+        List<Rectangle2D> bounds    = new ArrayList<Rectangle2D>();
+        for( Graphic g : page.rootGraphics ) {
+            if( ! (g instanceof Shape )) continue;
+            Shape s = (Shape) g;
+            s.indexNumber = shapeList.size();
+            shapeList.add( s );
+            bounds.add( s.bounds );
+        }
+        
+        shapes = shapeList.toArray( new Shape[ shapeList.size() ] );
+        index  = new SpatialIndex( bounds );
+        
+        index.overlappingPairs( new SpatialIndex.PairVisitor() {
+            public void visit( int a, int b ) {
+                if( index.intersects( a, b ) ) {
+                    intersecting.add( a, b );
+                    intersecting.add( b, a );
+                }
+                
+                if( index.contains( a, b ) ) {
+                    contained .add( a, b );
+                    containing.add( b, a );
+                }
+                
+                if( index.contains( b, a ) ) {
+                    contained .add( b, a );
+                    containing.add( a, b );
+                }
+            }
+        });
+        
+        intersecting.build( shapes.length );
+        contained   .build( shapes.length );
+        containing  .build( shapes.length );
+    }
+    
+    /**
+     * Get the root shapes that intersect a shape
+     */
+    Collection<Shape> intersecting( Shape shape ) {
+        return intersecting.row( shape );
+    }
+    
+    /**
+     * Get the root shapes that a shape contains
+     */
+    Collection<Shape> contained( Shape shape ) {
+        return contained.row( shape );
+    }
+    
+    /**
+     * Get the root shapes that contain a shape
+     */
+    Collection<Shape> containing( Shape shape ) {
+        return containing.row( shape );
+    }
+    
+    /**
+     * Get the root shapes whose bounds are within an area
+     */
+    Collection<Shape> within( Rectangle2D area ) {
+        int[] found = index.within( area );
+        return new ShapeList( found, 0, found.length );
+    }
+    
+    /**
+     * Get the root shapes whose bounds contain a point
+     */
+    Collection<Shape> at( Point2D point ) {
+        int[] found = index.containing( point );
+        return new ShapeList( found, 0, found.length );
+    }
+    
+    /**
+     * A relation from each shape to other shapes - collected as pairs then
+     * built into rows, each sorted by shape number
+     */
+    private final class Relation {
+        private int[] pairs = new int[ 16 ]; //from,to
+        private int   pairCount;
+        
+        private int[] rowStart; //the start of each row in the targets, plus the end of the last
+        private int[] targets;
+        
+        void add( int from, int to ) {
+            if( pairCount * 2 == pairs.length ) pairs = Arrays.copyOf( pairs, pairs.length * 2 );
+            pairs[ pairCount * 2     ] = from;
+            pairs[ pairCount * 2 + 1 ] = to;
+            pairCount++;
+        }
+        
+        void build( int rowCount ) {
+            rowStart = new int[ rowCount + 1 ];
+            for( int p = 0; p < pairCount; p++ ) rowStart[ pairs[ p * 2 ] + 1 ]++;
+            for( int r = 0; r < rowCount; r++ ) rowStart[ r + 1 ] += rowStart[ r ];
+            
+            targets = new int[ pairCount ];
+            int[] next = Arrays.copyOf( rowStart, rowCount );
+            for( int p = 0; p < pairCount; p++ ) {
+                targets[ next[ pairs[ p * 2 ] ]++ ] = pairs[ p * 2 + 1 ];
+            }
+            
+            for( int r = 0; r < rowCount; r++ ) {
+                Arrays.sort( targets, rowStart[ r ], rowStart[ r + 1 ] );
+            }
+            
+            pairs = null;
+        }
+        
+        Collection<Shape> row( Shape shape ) {
+            int number = shape.indexNumber;
+            if( number < 0 || number >= shapes.length || shapes[ number ] != shape ) {
+                return Collections.emptyList(); //not a root shape
+            }
+            
+            return new ShapeList( targets, rowStart[ number ], rowStart[ number + 1 ] );
+        }
+    }
+    
+    /**
+     * An immutable list of the shapes with the numbers in part of an array
+     */
+    private final class ShapeList extends AbstractList<Shape> {
+        private final int[] numbers;
+        private final int   start;
+        private final int   end;
+        
+        ShapeList( int[] numbers, int start, int end ) {
+            this.numbers = numbers;
+            this.start   = start;
+            this.end     = end;
+        }
+        
+        @Override
+        public Shape get( int index ) {
+            if( index < 0 || index >= end - start ) {
+                throw new IndexOutOfBoundsException( "index " + index + " of " + ( end - start ) );
+            }
+            return shapes[ numbers[ start + index ] ];
+        }
+        
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 
 import org.epistem.graffle.OGGraphic;
+import org.epistem.graffle.OGTableLayout;
 
 /**
  * A table group
@@ -15,7 +16,7 @@ public class Table extends Graphic implements GraphicContainer {
 
     public final Collection<Shape> cells = new HashSet<Shape>();
     
-    /** Table[row][column] */
+    /** Table[row][column] - every position has a cell */
     public final Shape[][] table;
     
     /** @see java.lang.Iterable#iterator() */
@@ -45,15 +46,22 @@ public class Table extends Graphic implements GraphicContainer {
     Table( OGGraphic ogg, GraphicContainer parent, Page page ) {
         super( ogg, parent, page );
         
-        OGGraphic[][] oggTable = ogg.table();
-        int colCount = oggTable.length;
-        int rowCount = oggTable[0].length;
+        OGTableLayout layout = ogg.tableLayout();
+        if( ! layout.isComplete() ) {
+            throw new RuntimeException( "Table " + ogg.id() + " on page '" + page.title 
+                                        + "' has positions with no cell" );
+        }
+        
+        int colCount = layout.columnCount();
+        int rowCount = layout.rowCount();
         
         table = new Shape[ rowCount ][ colCount ];
         
         for( int row = 0; row < rowCount; row++ ) {
+            OGGraphic[] oggRow = layout.row( row );
+            
             for( int col = 0; col < colCount; col++ ) {
-                Shape s = new Shape( oggTable[ col ][ row ], this, page );
+                Shape s = new Shape( oggRow[ col ], this, page );
                 table[ row ][ col ] = s;
                 cells.add( s );
             }
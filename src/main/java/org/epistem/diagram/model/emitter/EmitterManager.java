@@ -70,9 +70,9 @@ public class EmitterManager {
 
         @Override
         public void visitShape( Shape shape ) {
-            if( EMITTER.equals( shape.metadata.notes ) ) {
-                String emitterClass = shape.metadata.properties.get( EMITTER_CLASS );
-                String emitterFile  = shape.text;
+            if( EMITTER.equals( shape.metadata().notes ) ) {
+                String emitterClass = shape.metadata().properties.get( EMITTER_CLASS );
+                String emitterFile  = shape.text();
                 try {
                     File file = new File( outputDir, emitterFile );
                     
@@ -89,10 +89,10 @@ public class EmitterManager {
 
         @Override
         public DiagramVisitor visitTableStart( Table table ) {
-            if( NAMESPACE_TABLE.equals( table.metadata.notes )) {
+            if( NAMESPACE_TABLE.equals( table.metadata().notes )) {
                 for( Shape[] row : table.table ) {
-                    String prefix = row[0].text;
-                    String url    = row[1].text;
+                    String prefix = row[0].text();
+                    String url    = row[1].text();
                     
                     if( prefix.endsWith( "*" ) ) {
                         prefix = prefix.substring( 0, prefix.length() - 1 );
@@ -122,7 +122,7 @@ public abstract class ModelEmitter {
         this.graphic = graphic;
         processedGraphics.add( graphic );
         
-        String note = graphic.metadata.notes;
+        String note = graphic.metadata().notes;
         if( note != null && note.startsWith( "*" ) ) return; //skip specials
         if( note != null && note.startsWith( "xsd:" ) ) return; //skip value
         
@@ -162,7 +162,7 @@ public class OWL2Emitter extends ModelEmitter {
         Set<OWLIndividual> inds = new HashSet<OWLIndividual>();
         
         for( Connector conn : graphic.outgoing ) {
-            if( ! isEmpty( ((Line) conn).metadata.notes )) continue;
+            if( ! isEmpty( ((Line) conn).metadata().notes )) continue;
             inds.add( individualForGraphic( premptGraphic( notNullShape( conn.getHead() ))));
         }
 
@@ -176,7 +176,7 @@ public class OWL2Emitter extends ModelEmitter {
         Set<OWLIndividual> inds = new HashSet<OWLIndividual>();
         
         for( Connector conn : graphic.outgoing ) {
-            if( ! isEmpty( ((Line) conn).metadata.notes )) continue;
+            if( ! isEmpty( ((Line) conn).metadata().notes )) continue;
             inds.add( individualForGraphic( premptGraphic( notNullShape( conn.getHead() ))));
         }
 
@@ -200,7 +200,7 @@ public class OWL2Emitter extends ModelEmitter {
         Set<OWLIndividual> inds = new HashSet<OWLIndividual>();
         
         for( Connector conn : graphic.outgoing ) {
-            if( ! isEmpty( ((Line) conn).metadata.notes )) continue;
+            if( ! isEmpty( ((Line) conn).metadata().notes )) continue;
             inds.add( individualForGraphic( premptGraphic( notNullShape( conn.getHead() ))));
         }
 
@@ -229,7 +229,7 @@ public class OWL2Emitter extends ModelEmitter {
         boolean hasTarget = false;
         
         for( Connector conn : graphic.outgoing ) {
-            if( ! isEmpty( ((Line) conn).metadata.notes )) continue;
+            if( ! isEmpty( ((Line) conn).metadata().notes )) continue;
             OWLDescription desc = classForGraphic( premptGraphic( notNullShape( conn.getHead() )));
             descCache.put( graphic, factory.getOWLObjectComplementOf( desc ));
             hasTarget = true;
@@ -245,7 +245,7 @@ public class OWL2Emitter extends ModelEmitter {
         Set<OWLDescription> classes = new HashSet<OWLDescription>();
         
         for( Connector conn : graphic.outgoing ) {
-            if( ! isEmpty( ((Line) conn).metadata.notes )) continue;
+            if( ! isEmpty( ((Line) conn).metadata().notes )) continue;
             classes.add( classForGraphic( premptGraphic( notNullShape( conn.getHead() ))));
         }
 
@@ -259,7 +259,7 @@ public class OWL2Emitter extends ModelEmitter {
         Set<OWLDescription> classes = new HashSet<OWLDescription>();
         
         for( Connector conn : graphic.outgoing ) {
-            if( ! isEmpty( ((Line) conn).metadata.notes )) continue;
+            if( ! isEmpty( ((Line) conn).metadata().notes )) continue;
             classes.add( classForGraphic( premptGraphic( notNullShape( conn.getHead() ))));
         }
 
@@ -343,7 +343,7 @@ public class OWL2Emitter extends ModelEmitter {
         if( propEx != null ) return propEx;
         
         String propName = makeName( g, "Property" );
-        String note = g.metadata.notes;
+        String note = g.metadata().notes;
         
         if     ( "ObjectProperty".equals( note ) ) propEx = getOWLProperty( propName, false );
         else if( "DataProperty"  .equals( note ) ) propEx = getOWLProperty( propName, true );
@@ -436,7 +436,7 @@ public class OWL2Emitter extends ModelEmitter {
     
     private String makeName( Graphic g, String type ) {
         if( ! (g instanceof Shape) ) throw new RuntimeException( type + " graphic must be a Shape with text in sheet " + g.page.title );
-        String text = ((Shape) g).text;
+        String text = ((Shape) g).text();
         
         if( text == null ) throw new RuntimeException( type + " name missing in sheet " + g.page.title );
         StringBuilder buff = new StringBuilder();
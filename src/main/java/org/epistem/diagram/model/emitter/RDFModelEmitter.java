@@ -47,7 +47,7 @@ public class RDFModelEmitter extends ModelEmitter {
      */
     protected Resource resourceFor( Graphic g ) {
         if( g instanceof Shape ) {
-            String name = ((Shape) g).text;
+            String name = ((Shape) g).text();
             
             return model.createResource( toURL( name ) );
         }
@@ -85,8 +85,8 @@ public class RDFModelEmitter extends ModelEmitter {
      */
     protected RDFNode nodeFor( Graphic g ) {
         if( g instanceof Shape ) {
-            String name = ((Shape) g).text;
-            String note = g.metadata.notes;
+            String name = ((Shape) g).text();
+            String note = g.metadata().notes;
             
             if( note != null && note.startsWith( "xsd:" ) ) {
                 String xsdType = note.substring( 4 );
@@ -135,7 +135,7 @@ public class RDFModelEmitter extends ModelEmitter {
             RDFNode  headNode     = nodeFor( head );
             
             for( Shape label : line.labels ) {
-                String uri = toURL( label.text );
+                String uri = toURL( label.text() );
                 Property prop = model.createProperty( uri );
                 model.add( tailResource, prop, headNode );
             }            
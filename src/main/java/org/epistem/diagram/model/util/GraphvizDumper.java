@@ -22,7 +22,7 @@ public class GraphvizDumper implements DiagramVisitor {
     }
     
     public void visitConnectorShape( ConnectorShape shape ) {
-        gv.declareNode( "" + shape.hashCode(), "" + shape.text, "#cccccc" );
+        gv.declareNode( "" + shape.hashCode(), "" + shape.text(), "#cccccc" );
 
         if( shape.head != null ) gv.arc( "" + shape.hashCode(), "" + shape.head.hashCode(), "head" );
         if( shape.tail != null ) gv.arc( "" + shape.hashCode(), "" + shape.tail.hashCode(), "tail" );
@@ -48,7 +48,7 @@ public class GraphvizDumper implements DiagramVisitor {
     }
 
     public DiagramVisitor visitGroupStart( Group group ) {
-        gv.declareNode( "" + group.hashCode(), "Group\n" + group.text, "#ffccff" );
+        gv.declareNode( "" + group.hashCode(), "Group\n" + group.text(), "#ffccff" );
         return this;
     }
 
@@ -82,7 +82,7 @@ public class GraphvizDumper implements DiagramVisitor {
     }
 
     public void visitShape( Shape shape ) {
-        gv.declareNode( "" + shape.hashCode(), "" + shape.text, "#ccffff" );
+        gv.declareNode( "" + shape.hashCode(), "" + shape.text(), "#ccffff" );
     }
 
     public void visitTableEnd( Table table ) {
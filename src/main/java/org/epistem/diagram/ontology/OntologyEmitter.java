@@ -36,8 +36,8 @@ public class OntologyEmitter {
      
         /** Whether this note matches a graphic */
         public boolean matches( Graphic g ) {
-            if( g == null || g.metadata.notes == null ) return false;
-            return name().equalsIgnoreCase( g.metadata.notes.trim() );
+            if( g == null || g.metadata().notes == null ) return false;
+            return name().equalsIgnoreCase( g.metadata().notes.trim() );
         }
     }
     
@@ -816,7 +816,7 @@ public class OntologyEmitter {
                 for( Shape label : line.labels ) {
 
                     if( OntoNote.Cardinality.matches( label ) ) {
-                        String cardStr = label.text.trim();
+                        String cardStr = label.text().trim();
                         
                         decodeCardinality( lap, cardStr );
                         continue;
@@ -1081,7 +1081,7 @@ public class OntologyEmitter {
     }
     
     private String makeName( Shape s, String type ) {
-        String text = s.text;
+        String text = s.text();
         
         if( text == null ) return null;
         StringBuilder buff = new StringBuilder();
@@ -1141,7 +1141,7 @@ public class OntologyEmitter {
      * Whether a shape is a literal
      */
     private boolean isLiteral( Shape shape ) {
-        return shape.metadata.notes != null && shape.metadata.notes.startsWith( XSD_PREFIX );
+        return shape.metadata().notes != null && shape.metadata().notes.startsWith( XSD_PREFIX );
     }
     
     /**
@@ -1151,11 +1151,11 @@ public class OntologyEmitter {
         OWLConstant lit = shapeConstants.get( s );
         if( lit != null ) return lit;
         
-        String text = s.text;
+        String text = s.text();
         if( text == null ) text = "";
         else text = text.trim();
 
-        String note = s.metadata.notes;
+        String note = s.metadata().notes;
         
         if( note != null ) {
             note = note.trim();
@@ -1223,7 +1223,7 @@ public class OntologyEmitter {
         @Override
         public DiagramVisitor visitGroupStart( Group group ) {
             if( OntoNote.Ontology.matches( group ) ) {
-                ontologyURI = URI.create( group.text.trim() );
+                ontologyURI = URI.create( group.text().trim() );
                 try {
                     ontology = manager.createOntology( ontologyURI );
                 }
@@ -1242,7 +1242,7 @@ public class OntologyEmitter {
             //ontology annotations
             if( table.parent != null && table.parent instanceof Group ) {
                 for( Shape[] row : table.table ) {
-                    URI         uri   = uriFromString( row[0].text.trim());
+                    URI         uri   = uriFromString( row[0].text().trim());
                     OWLConstant value = getLiteral( row[1] );
                     
                     OWLConstantAnnotation annot = factory.getOWLConstantAnnotation( uri, value );
@@ -1255,8 +1255,8 @@ public class OntologyEmitter {
             //imports
             if( OntoNote.Imports.matches( table ) ) {
                 for( Shape[] row : table.table ) {
-                    String prefix = row[0].text.trim();
-                    URI uri = uriFromString( row[1].text.trim());
+                    String prefix = row[0].text().trim();
+                    URI uri = uriFromString( row[1].text().trim());
                     
                     uriPrefixes.put( prefix, uri.toString() );
                     
@@ -0,0 +1,292 @@
+package org.epistem.graffle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A reader for OS X binary (bplist00) PLISTs. Objects are only decoded when
+ * they are first reached, by following the offset table of the plist.
+ * Produces the same objects as the xml parser - a map, list, byte[], Date,
+ * Double, Integer, String or Boolean.
+ *
+ * @author nickmain
+ */
+final class BinaryPListParser {
+
+    private static final byte[] MAGIC = { 'b', 'p', 'l', 'i', 's', 't', '0', '0' };
+    
+    private static final int TRAILER_SIZE = 32;
+    
+    //seconds between the java epoch and the plist epoch of 2001-01-01
+    private static final long EPOCH_2001 = 978307200L;
+    
+    private final ByteBuffer buffer;
+    private final int offsetSize;
+    private final int refSize;
+    private final int offsetTable;
+    private final Object[] objects;
+    private final ParseOptions options;
+    
+    private final StringTable strings = new StringTable();
+    private final PListDict.KeySets keySets = new PListDict.KeySets();
+    
+    /**
+     * Whether the given header bytes are those of a binary plist
+     */
+    static boolean isBinary( byte[] header ) {
+        if( header.length < MAGIC.length ) return false;
+        
+        for( int i = 0; i < MAGIC.length; i++ ) {
+            if( header[i] != MAGIC[i] ) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Read a binary plist
+     * 
+     * @param buffer the plist bytes - typically a mapped file
+     * @param options the parse options
+     * @return the top object of the plist
+     */
+    static Object parse( ByteBuffer buffer, ParseOptions options ) throws IOException {
+        return new BinaryPListParser( buffer, options ).topObject();
+    }
+    
+    private final int topObject;
+    
+    private BinaryPListParser( ByteBuffer buffer, ParseOptions options ) throws IOException {
+        this.buffer  = buffer;
+        this.options = options;
+        
+        int trailer = buffer.limit() - TRAILER_SIZE;
+        if( trailer < MAGIC.length ) throw new IOException( "Binary plist is truncated" );
+        
+        offsetSize  = buffer.get( trailer + 6 ) & 0xff;
+        refSize     = buffer.get( trailer + 7 ) & 0xff;
+        
+        long count  = buffer.getLong( trailer + 8 );
+        long top    = buffer.getLong( trailer + 16 );
+        long table  = buffer.getLong( trailer + 24 );
+        
+        if( count < 0 || count > Integer.MAX_VALUE 
+         || top   < 0 || top   >= count
+         || table < MAGIC.length || table + count * offsetSize > trailer ) {
+            throw new IOException( "Invalid binary plist trailer" );
+        }
+        
+        objects     = new Object[ (int) count ];
+        topObject   = (int) top;
+        offsetTable = (int) table;
+    }
+    
+    private Object topObject() {
+        return object( topObject );
+    }
+    
+    /**
+     * Get an object by index, decoding it if it has not been reached yet
+     */
+    synchronized Object object( int index ) {
+        Object obj = objects[index];
+        if( obj == null ) {
+            obj = decode( (int) readUnsigned( offsetTable + index * offsetSize, offsetSize ) );
+            objects[index] = obj;
+        }
+        
+        return obj;
+    }
+    
+    private Object decode( int offset ) {
+        int marker = buffer.get( offset ) & 0xff;
+        int type   = marker >> 4;
+        int info   = marker & 0x0f;
+        
+        switch( type ) {
+            case 0x0:
+                if( info == 0x8 ) return Boolean.FALSE;
+                if( info == 0x9 ) return Boolean.TRUE;
+                throw new IllegalStateException( "Unsupported binary plist marker " + marker );
+                
+            case 0x1: return integer( offset + 1, 1 << info );
+            case 0x2: return real( offset + 1, 1 << info );
+                
+            case 0x3: {
+                double seconds = buffer.getDouble( offset + 1 );
+                return new Date( (long) ( ( seconds + EPOCH_2001 ) * 1000 ) );
+            }
+                
+            case 0x4: {
+                int[] count = count( offset, info );
+                if( options.isLazyData() ) return new PListData.BufferData( buffer, count[1], count[0] );
+                
+                byte[] data = new byte[ count[0] ];
+                ByteBuffer bytes = buffer.duplicate();
+                bytes.position( count[1] );
+                bytes.get( data );
+                return data;
+            }
+            
+            case 0x5: {
+                int[] count = count( offset, info );
+                char[] chars = new char[ count[0] ];
+                for( int i = 0; i < chars.length; i++ ) {
+                    chars[i] = (char) ( buffer.get( count[1] + i ) & 0xff );
+                }
+                return strings.intern( chars, 0, chars.length );
+            }
+
+            case 0x6: {
+                int[] count = count( offset, info );
+                char[] chars = new char[ count[0] ];
+                for( int i = 0; i < chars.length; i++ ) {
+                    chars[i] = buffer.getChar( count[1] + i * 2 );
+                }
+                return strings.intern( chars, 0, chars.length );
+            }
+            
+            case 0x8: return integer( offset + 1, info + 1 );
+                
+            case 0xA: 
+            case 0xC: {
+                int[] count = count( offset, info );
+                return new BinaryArray( count[1], count[0] );
+            }
+                
+            case 0xD: {
+                int[] count = count( offset, info );
+                return new BinaryDict( count[1], count[0] );
+            }
+                
+            default:
+                throw new IllegalStateException( "Unsupported binary plist marker " + marker );
+        }
+    }
+    
+    //get the {count,start} of a variable length object
+    private int[] count( int offset, int info ) {
+        if( info != 0x0f ) return new int[] { info, offset + 1 };
+        
+        int intMarker = buffer.get( offset + 1 ) & 0xff;
+        int intSize   = 1 << ( intMarker & 0x0f );
+        int count     = (int) readUnsigned( offset + 2, intSize );
+        return new int[] { count, offset + 2 + intSize };
+    }
+    
+    private Object integer( int offset, int size ) {
+        long value;
+        switch( size ) {
+            case 1:  value = buffer.get( offset ) & 0xff; break;
+            case 2:  value = buffer.getShort( offset ) & 0xffff; break;
+            case 4:  value = buffer.getInt( offset ) & 0xffffffffL; break;
+            case 8:  value = buffer.getLong( offset ); break;
+            case 16: value = buffer.getLong( offset + 8 ); break;
+            default: throw new IllegalStateException( "Unsupported binary plist int size " + size );
+        }
+        
+        if( value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ) {
+            return Integer.valueOf( (int) value );
+        }
+        return Long.valueOf( value );
+    }
+    
+    private Double real( int offset, int size ) {
+        if( size == 4 ) return Double.valueOf( buffer.getFloat( offset ) );
+        return Double.valueOf( buffer.getDouble( offset ) );
+    }
+    
+    private long readUnsigned( int offset, int size ) {
+        long value = 0;
+        for( int i = 0; i < size; i++ ) {
+            value = ( value << 8 ) | ( buffer.get( offset + i ) & 0xff );
+        }
+        return value;
+    }
+    
+    private int ref( int offset, int index ) {
+        return (int) readUnsigned( offset + index * refSize, refSize );
+    }
+    
+    /**
+     * An array whose elements are decoded when first reached
+     */
+    private final class BinaryArray extends AbstractList<Object> {
+        private final int refs;
+        private final int size;
+        
+        BinaryArray( int refs, int size ) {
+            this.refs = refs;
+            this.size = size;
+        }
+        
+        @Override
+        public Object get( int index ) {
+            if( index < 0 || index >= size ) throw new IndexOutOfBoundsException( "" + index );
+            return object( ref( refs, index ) );
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+    
+    /**
+     * A dictionary that is decoded when first reached. The values of the 
+     * decoded dictionary are themselves only decoded when they are reached
+     * if they are arrays or dictionaries.
+     */
+    private final class BinaryDict extends AbstractMap<String,Object> {
+        private final int refs;
+        private final int size;
+        private Map<String,Object> dict;
+
+        BinaryDict( int refs, int size ) {
+            this.refs = refs;
+            this.size = size;
+        }
+        
+        private Map<String,Object> dict() {
+            synchronized( BinaryPListParser.this ) {
+                if( dict == null ) {
+                    PListDict.Builder builder = new PListDict.Builder();
+                    for( int i = 0; i < size; i++ ) {
+                        String key   = (String) object( ref( refs, i ) );
+                        Object value = object( ref( refs, size + i ) );
+                        builder.put( key, value );
+                    }
+                    
+                    dict = builder.build( keySets );
+                }
+                
+                return dict;
+            }
+        }
+        
+        @Override
+        public Object get( Object key ) {
+            return dict().get( key );
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            return dict().containsKey( key );
+        }
+
+        @Override
+        public int size() {
+            return dict().size();
+        }
+        
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return dict().entrySet();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.epistem.graffle;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A plist array that is only parsed when it is first accessed. Holds the
+ * raw bytes of the document until then.
+ *
+ * @author nickmain
+ */
+final class LazyArray extends AbstractList<Object> {
+
+    private byte[] data;
+    private final int start;
+    private final int end;
+    private final ParseOptions options;
+    private PListProjection projection;
+    
+    private List<Object> list;
+    
+    /**
+     * @param data the document bytes
+     * @param start the start of the array element
+     * @param end the end (exclusive) of the array element
+     */
+    LazyArray( byte[] data, int start, int end, ParseOptions options ) {
+        this.data    = data;
+        this.start   = start;
+        this.end     = end;
+        this.options = options;
+    }
+    
+    /**
+     * Set the projection that applies to the elements of the array
+     */
+    synchronized void project( PListProjection projection ) {
+        this.projection = projection;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private synchronized List<Object> list() {
+        if( list == null ) {
+            try {
+                list = (List<Object>) PListParser.parse( data, start, end, options, projection );
+            }
+            catch( Exception ex ) {
+                throw new RuntimeException( "Could not parse deferred plist array", ex );
+            }
+            
+            data = null;
+        }
+        
+        return list;
+    }
+    
+    @Override
+    public Object get( int index ) {
+        return list().get( index );
+    }
+
+    @Override
+    public int size() {
+        return list().size();
+    }
+}
@@ -0,0 +1,35 @@
+package org.epistem.graffle;
+
+/**
+ * Receives the parts of an OmniGraffle document as it is streamed - see
+ * OmniGraffleDoc.stream(..)
+ *
+ * @author nickmain
+ */
+public interface OGDocumentHandler {
+
+    /**
+     * Called before the first sheet or graphic. The document metadata that
+     * follows the sheets in the file (such as the UserInfo) is not yet 
+     * available.
+     */
+    public void startDocument( OmniGraffleDoc document ) throws Exception;
+    
+    /**
+     * Called with each top level graphic as it is read, if graphics are 
+     * being streamed. The graphic is detached - it has no sheet or layer.
+     */
+    public void graphic( OGGraphic graphic ) throws Exception;
+    
+    /**
+     * Called with each sheet as it is read. If graphics are being streamed
+     * then they have already been passed to graphic(..) and the sheet has 
+     * none of its own.
+     */
+    public void sheet( OGSheet sheet ) throws Exception;
+    
+    /**
+     * Called at the end of the document, when all the metadata is available
+     */
+    public void endDocument( OmniGraffleDoc document ) throws Exception;
+}
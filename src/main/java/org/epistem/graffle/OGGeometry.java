@@ -0,0 +1,193 @@
+package org.epistem.graffle;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The geometry of the graphics of a sheet, parsed once into primitive
+ * arrays. Each graphic (including those within groups) has a slot holding
+ * its bounds and the range of its points in a packed buffer.
+ *
+ * @author nickmain
+ */
+@SuppressWarnings("unchecked")
+public final class OGGeometry {
+
+    private final Map<Object, Integer> slots = new IdentityHashMap<Object, Integer>();
+    
+    private double[] x;
+    private double[] y;
+    private double[] width;
+    private double[] height;
+    
+    private int[] pointStart; //the index of the first x in the points buffer
+    private int[] pointCount;
+    private double[] points;  //x,y pairs
+    
+    private int slotCount;
+    private int pointsLength;
+    
+    OGGeometry( List<Object> graphicsList ) {
+        int capacity = Math.max( 16, graphicsList.size() );
+        x          = new double[ capacity ];
+        y          = new double[ capacity ];
+        width      = new double[ capacity ];
+        height     = new double[ capacity ];
+        pointStart = new int[ capacity ];
+        pointCount = new int[ capacity ];
+        points     = new double[ 64 ];
+        
+        add( graphicsList );
+        
+        x          = Arrays.copyOf( x, slotCount );
+        y          = Arrays.copyOf( y, slotCount );
+        width      = Arrays.copyOf( width, slotCount );
+        height     = Arrays.copyOf( height, slotCount );
+        pointStart = Arrays.copyOf( pointStart, slotCount );
+        pointCount = Arrays.copyOf( pointCount, slotCount );
+        points     = Arrays.copyOf( points, pointsLength );
+    }
+    
+    //add the graphics, and those within groups
+    private void add( List<Object> graphics ) {
+        if( graphics == null ) return;
+        
+        for( Object obj : graphics ) {
+            Map<String,Object> dict = (Map<String,Object>) obj;
+            if( slots.containsKey( dict ) ) continue;
+            
+            int slot = slotCount++;
+            if( slot == x.length ) grow();
+            slots.put( dict, slot );
+            
+            String bounds = (String) dict.get( "Bounds" );
+            if( bounds != null ) {
+                double[] numbers = new double[4];
+                parseNumbers( bounds, numbers, 4 );
+                x     [slot] = numbers[0];
+                y     [slot] = numbers[1];
+                width [slot] = numbers[2];
+                height[slot] = numbers[3];
+            }
+            
+            List<Object> pp = (List<Object>) dict.get( "Points" );
+            pointStart[slot] = pointsLength;
+            if( pp != null ) {
+                pointCount[slot] = pp.size();
+                if( pointsLength + pp.size() * 2 > points.length ) {
+                    points = Arrays.copyOf( points, Math.max( points.length * 2, pointsLength + pp.size() * 2 ) );
+                }
+                
+                double[] numbers = new double[2];
+                for( Object p : pp ) {
+                    parseNumbers( (String) p, numbers, 2 );
+                    points[ pointsLength++ ] = numbers[0];
+                    points[ pointsLength++ ] = numbers[1];
+                }
+            }
+            
+            add( (List<Object>) dict.get( "Graphics" ) );
+        }
+    }
+    
+    private void grow() {
+        int capacity = x.length * 2;
+        x          = Arrays.copyOf( x, capacity );
+        y          = Arrays.copyOf( y, capacity );
+        width      = Arrays.copyOf( width, capacity );
+        height     = Arrays.copyOf( height, capacity );
+        pointStart = Arrays.copyOf( pointStart, capacity );
+        pointCount = Arrays.copyOf( pointCount, capacity );
+    }
+    
+    /**
+     * The number of slots
+     */
+    public int size() {
+        return slotCount;
+    }
+    
+    /**
+     * Get the slot of a graphic
+     *
+     * @return -1 if the graphic is not part of the sheet
+     */
+    public int slot( OGGraphic graphic ) {
+        return slot( graphic.dict );
+    }
+    
+    int slot( Map<String,Object> dict ) {
+        Integer slot = slots.get( dict );
+        return slot != null ? slot : -1;
+    }
+    
+    public double x( int slot ) { return x[slot]; }
+    public double y( int slot ) { return y[slot]; }
+    public double width( int slot ) { return width[slot]; }
+    public double height( int slot ) { return height[slot]; }
+    
+    /**
+     * Whether the bounds in a slot have no area
+     */
+    public boolean isEmpty( int slot ) {
+        return width[slot] <= 0 || height[slot] <= 0;
+    }
+    
+    /**
+     * Get the bounds in a slot as a new rectangle
+     */
+    public Rectangle2D bounds( int slot ) {
+        return new Rectangle2D.Double( x[slot], y[slot], width[slot], height[slot] );
+    }
+    
+    /**
+     * The number of points in a slot
+     */
+    public int pointCount( int slot ) {
+        return pointCount[slot];
+    }
+    
+    public double pointX( int slot, int index ) { return points[ pointStart[slot] + index * 2 ]; }
+    public double pointY( int slot, int index ) { return points[ pointStart[slot] + index * 2 + 1 ]; }
+    
+    /**
+     * Get the points in a slot as new points
+     */
+    public List<Point2D> points( int slot ) {
+        List<Point2D> list = new ArrayList<Point2D>( pointCount[slot] );
+        for( int i = 0; i < pointCount[slot]; i++ ) {
+            list.add( new Point2D.Double( pointX( slot, i ), pointY( slot, i ) ) );
+        }
+        return list;
+    }
+    
+    /**
+     * Parse the numbers in a bounds or point string such as "{{1, 2}, {3, 4}}"
+     *
+     * @param numbers receives the numbers
+     * @param count the number of numbers to parse
+     */
+    static void parseNumbers( String s, double[] numbers, int count ) {
+        char[] chars = s.toCharArray();
+        int length = chars.length;
+        int pos    = 0;
+        
+        for( int i = 0; i < count; i++ ) {
+            while( pos < length && isSeparator( chars[pos] ) ) pos++;
+            int start = pos;
+            while( pos < length && ! isSeparator( chars[pos] ) ) pos++;
+            
+            if( start == pos ) throw new NumberFormatException( "Missing number in " + s );
+            numbers[i] = OGUtils.parseDouble( chars, start, pos );
+        }
+    }
+    
+    private static boolean isSeparator( char c ) {
+        return c == ' ' || c == '{' || c == '}' || c == ',';
+    }
+}
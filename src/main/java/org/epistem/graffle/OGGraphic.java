@@ -2,12 +2,8 @@ package org.epistem.graffle;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.io.StringReader;
 import java.util.*;
 
-import javax.swing.text.DefaultStyledDocument;
-import javax.swing.text.rtf.RTFEditorKit;
-
 import static org.epistem.graffle.OGUtils.*;
 
 /**
@@ -25,15 +21,30 @@ public final class OGGraphic {
         TableGroup
     }
     
-    private final Map<String, Object> dict;
+    final Map<String, Object> dict;
     public  final OGSheet sheet;
     public  final OGGraphic parent;
+    private final OGStyle style;
     private OGLayer layer;    
+    private volatile List<OGGraphic> oggraphics;
+    private volatile OGTableLayout tableLayout;
+    
+    /**
+     * Whether the graphic was read apart from the graphics of its sheet, or
+     * has no sheet
+     */
+    final boolean detached;
     
     OGGraphic( OGSheet sheet, OGGraphic parent, Map<String, Object> dict ) {
+        this( sheet, parent, dict, sheet == null || ( parent != null && parent.detached ) );
+    }
+    
+    OGGraphic( OGSheet sheet, OGGraphic parent, Map<String, Object> dict, boolean detached ) {
         this.dict = dict;
         this.sheet = sheet;
         this.parent = parent;
+        this.style = OGStyle.of( dict );
+        this.detached = detached;
     }
 
     /**
@@ -52,28 +63,29 @@ public final class OGGraphic {
     
     /**
      * Get the layer this graphic is on
+     * @return null if not known or the graphic is detached from its sheet
      */
     public OGLayer layer() {
         if( layer == null ) {
             Integer layerIndex = (Integer) dict.get( "Layer" );
-            if( layerIndex == null ) return null;
+            if( layerIndex == null || sheet == null ) return null;
             layer = sheet.layers[ layerIndex ];
         }
         return layer;
     }
     
+    /**
+     * Get the (shared) stroke style
+     */
+    public OGStyle style() {
+        return style;
+    }
+    
     /**
      * Get the stroke style (zero is solid)
      */
     public int strokePattern() {
-        Map<String,Object> style = (Map<String,Object>) dict.get( "Style" );
-        if( style == null ) return 0;
-        Map<String,Object> stroke = (Map<String,Object>) style.get( "stroke" );
-        if( stroke == null ) return 0;
-
-        Integer pattern = (Integer) stroke.get( "Pattern" );
-        if( pattern == null ) return 0;
-        return pattern;
+        return style.pattern;
     }
     
     /**
@@ -87,63 +99,59 @@ public final class OGGraphic {
      * Get the notes, if any
      */
     public String notes() {
-        String s = unRTF( (String) dict.get( "Notes" ));
-        if( s == null ) return null;
-        if( s.endsWith( "\n" ) ) s = s.substring( 0, s.length() - 1 );
-        return s;
+        return unRTF( notesRTF() );
     }
     
     /**
-     * Get the rows of a table
-     * @return
+     * Get the RTF of the notes
+     * @return null if there are no notes
      */
-    public List<List<OGGraphic>> tableRows() {
-        List<List<OGGraphic>> rows = new ArrayList<List<OGGraphic>>();
-        if( graphicClass() != GraphicClass.TableGroup ) return rows;
-        
-        SortedMap<Double, SortedMap<Double, OGGraphic>> rowMap = 
-            new TreeMap<Double, SortedMap<Double,OGGraphic>>();
+    public String notesRTF() {
+        return (String) dict.get( "Notes" );
+    }
+    
+    /**
+     * Get the layout of a table, worked out when first needed
+     * @return an empty layout if this is not a table
+     */
+    public OGTableLayout tableLayout() {
+        OGTableLayout tableLayout = this.tableLayout;
+        if( tableLayout != null ) return tableLayout;
         
-        for( OGGraphic g : graphics() ) {
-            Rectangle2D rect = g.bounds();
-            
-            SortedMap<Double,OGGraphic> row = rowMap.get( rect.getY() );
-            if( row == null ) {
-                row = new TreeMap<Double, OGGraphic>();
-                rowMap.put( rect.getY(), row );
+        synchronized( this ) {
+            if( this.tableLayout == null ) {
+                List<OGGraphic> cells = graphicClass() == GraphicClass.TableGroup ? 
+                                            graphics() : 
+                                            Collections.<OGGraphic>emptyList();
+                this.tableLayout = new OGTableLayout( cells );
             }
             
-            row.put( rect.getX(), g );
+            return this.tableLayout;
         }
-        
-        for( SortedMap<Double,OGGraphic> row : rowMap.values() ) {
-            List<OGGraphic> rowList = new ArrayList<OGGraphic>();
-            rows.add( rowList );
-            
-            for( OGGraphic g : row.values() ) {
-                rowList.add( g );
-            }
-        }
-        
-        return rows;
+    }
+    
+    /**
+     * Get the rows of a table. The lists cannot be modified.
+     */
+    public List<List<OGGraphic>> tableRows() {
+        return tableLayout().rows();
     }
     
     /**
      * Get the cells of a table in an [x][y] array
      */
     public OGGraphic[][] table() {
-        List<List<OGGraphic>> tableRows = tableRows();
-        if( tableRows.isEmpty() ) return new OGGraphic[0][];
+        OGTableLayout layout = tableLayout();
+        if( layout.rowCount() == 0 ) return new OGGraphic[0][];
         
-        int rowCount = tableRows.size();
-        int rowSize  = tableRows.get(0).size();
+        int rowCount = layout.rowCount();
+        int rowSize  = layout.columnCount();
         OGGraphic[][] table = new OGGraphic[ rowSize ][ rowCount ];
         for( int y = 0; y < rowCount; y++ ) {
-            List<OGGraphic> row = tableRows.get( y );
+            OGGraphic[] row = layout.row( y );
             
             for( int x = 0; x < rowSize; x++ ) {
-                OGGraphic cell = row.get( x );
-                table[x][y] = cell;
+                table[x][y] = row[x];
             }
         }       
         
@@ -176,44 +184,69 @@ public final class OGGraphic {
      * Get the bounds of a shape graphic
      */
     public Rectangle2D bounds() {
-        String bounds = (String) dict.get( "Bounds" );
-        if( bounds == null ) bounds = "{{0,0}, {0,0}}";
+        int slot = geometrySlot();
+        if( slot >= 0 ) return sheet.geometry().bounds( slot );
         
-        StringTokenizer tok = new StringTokenizer( bounds, " {}," );
+        //a detached graphic
+        double[] numbers = new double[4];
+        String bounds = (String) dict.get( "Bounds" );
+        if( bounds != null ) OGGeometry.parseNumbers( bounds, numbers, 4 );
         
-        return new Rectangle2D.Double( 
-                       Double.parseDouble( tok.nextToken() ),
-                       Double.parseDouble( tok.nextToken() ),                
-                       Double.parseDouble( tok.nextToken() ),                
-                       Double.parseDouble( tok.nextToken() ));
+        return new Rectangle2D.Double( numbers[0], numbers[1], numbers[2], numbers[3] );
     }
     
     /**
-     * Get the graphics within a group graphic
+     * Get the slot of this graphic in the geometry of its sheet
+     * 
+     * @return -1 if the graphic is detached from its sheet
+     */
+    public int geometrySlot() {
+        if( detached ) return -1; //not in the geometry, which need not be parsed
+        return sheet.geometry().slot( dict );
+    }
+    
+    /**
+     * Get the graphics within a group graphic. The list is built once and
+     * cannot be modified.
+     * 
+     * @return empty if this is not a group
      */
     public List<OGGraphic> graphics() {
-        List<OGGraphic> oggraphics = new ArrayList<OGGraphic>();
+        List<OGGraphic> oggraphics = this.oggraphics;
+        if( oggraphics != null ) return oggraphics;
         
-        List<Object> graphics = (List<Object>) dict.get( "Graphics" );
-        for( Object dict : graphics ) {
-            oggraphics.add( new OGGraphic( sheet, this, (Map<String,Object>) dict ) );
+        synchronized( this ) {
+            if( this.oggraphics == null ) {
+                List<Object> graphics = (List<Object>) dict.get( "Graphics" );
+                if( graphics == null ) graphics = Collections.emptyList();
+                
+                oggraphics = new ArrayList<OGGraphic>( graphics.size() );
+                for( Object dict : graphics ) {
+                    oggraphics.add( new OGGraphic( sheet, this, (Map<String,Object>) dict ) );
+                }
+                
+                this.oggraphics = Collections.unmodifiableList( oggraphics );
+            }
+            
+            return this.oggraphics;
         }
-        
-        return oggraphics;
     }
     
     /**
      * Get the points for a line graphic
      */
     public List<Point2D> points() {
+        int slot = geometrySlot();
+        if( slot >= 0 ) return sheet.geometry().points( slot );
+        
+        //a detached graphic
         List<Point2D> points = new ArrayList<Point2D>();
         
+        double[] numbers = new double[2];
         List<Object> pp = (List<Object>) dict.get( "Points" );
         for( Object p : pp ) {
-            StringTokenizer tok = new StringTokenizer( (String) p, " {}," );
-            points.add( new Point2D.Double( 
-                                Double.parseDouble( tok.nextToken() ),
-                                Double.parseDouble( tok.nextToken() ) ));
+            OGGeometry.parseNumbers( (String) p, numbers, 2 );
+            points.add( new Point2D.Double( numbers[0], numbers[1] ) );
         }
         
         return points;
@@ -223,24 +256,14 @@ public final class OGGraphic {
      * Get the head arrow type for a line graphic
      */
     public String headArrow() {
-        Map<String,Object> style = (Map<String,Object>) dict.get( "Style" );
-        if( style == null ) return "0";
-        Map<String,Object> stroke = (Map<String,Object>) style.get( "stroke" );
-        if( stroke == null ) return "0";
-        
-        return (String) stroke.get( "HeadArrow" );
+        return style.headArrow;
     }
 
     /**
      * Get the tail arrow type for a line graphic
      */
     public String tailArrow() {
-        Map<String,Object> style = (Map<String,Object>) dict.get( "Style" );
-        if( style == null ) return "0";
-        Map<String,Object> stroke = (Map<String,Object>) style.get( "stroke" );
-        if( stroke == null ) return "0";
-        
-        return (String) stroke.get( "TailArrow" );
+        return style.tailArrow;
     }
     
     /**
@@ -291,36 +314,25 @@ public final class OGGraphic {
      * Get the text of the shape
      */
     public String text() {
-        Map<String,Object> text = (Map<String,Object>) dict.get( "Text" );
-        if( text == null ) return null;
-        
-        String s = (String) text.get( "Text" );
-        s = unRTF( s );
-        if( s == null ) return null;
-        if( s.endsWith( "\n" ) ) s = s.substring( 0, s.length() - 1 );
-        return s;
+        return unRTF( textRTF() );
     }
     
     /**
-     * Get the styled text
+     * Get the text of the shape with its character formatting
+     * @return null if there is no text
      */
-    public DefaultStyledDocument styledText() {
+    public RichText richText() {
+        return RTFCache.SHARED.richText( textRTF() );
+    }
+    
+    /**
+     * Get the RTF of the text of the shape
+     * @return null if there is no text
+     */
+    public String textRTF() {
         Map<String,Object> text = (Map<String,Object>) dict.get( "Text" );
         if( text == null ) return null;
-
-        String s = (String) text.get( "Text" );
-        if( s == null ) return null;
-
-        DefaultStyledDocument doc = new DefaultStyledDocument();
-        RTFEditorKit kit = new RTFEditorKit();
-        
-        try {
-            kit.read( new StringReader( s ), doc, 0 );
-        }
-        catch( Exception ex ) {
-            throw new RuntimeException( ex );
-        }
         
-        return doc;
+        return (String) text.get( "Text" );
     }
 }
@@ -0,0 +1,342 @@
+package org.epistem.graffle;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The images of a document. A package document holds its images as files
+ * named in the ImageList, a flat document holds them inline as data
+ * elements of the Images array (in the same order as the ImageList).
+ *
+ * Decoded images and thumbnails are kept in a bounded LRU of soft
+ * references so that they are only decoded again once they have fallen out
+ * of the LRU or been reclaimed.
+ *
+ * @author nickmain
+ */
+@SuppressWarnings("unchecked")
+final class OGImages {
+    
+    /**
+     * The number of decoded images (and thumbnails) retained
+     */
+    static final int CACHE_SIZE = 32;
+    
+    private final File file;
+    private final Map<String, Object> plist;
+    private List<String> names;
+    
+    //by id in the high word and thumbnail size (zero for full size) in the low
+    private final Map<Long, SoftReference<BufferedImage>> cache =
+        new LinkedHashMap<Long, SoftReference<BufferedImage>>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Long, SoftReference<BufferedImage>> eldest ) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    
+    OGImages( File file, Map<String, Object> plist ) {
+        this.file  = file;
+        this.plist = plist;
+    }
+    
+    /**
+     * Get the image file names, in image list order
+     */
+    synchronized List<String> names() {
+        if( names == null ) {
+            names = new ArrayList<String>();
+            
+            List<String> imageList = (List<String>) plist.get( "ImageList" );
+            if( imageList != null ) {
+                names.addAll( imageList );
+            }
+            else if( file.isDirectory() ) {
+                String[] files = file.list();
+                Arrays.sort( files );
+                for( String name : files ) {
+                    if( idOf( name ) >= 0 ) names.add( name );
+                }
+            }
+            
+            names = Collections.unmodifiableList( names );
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Get the image id from a name such as "image3.tiff". The name must be
+     * exactly "image", digits, "." and an alphanumeric extension - so that
+     * names from the ImageList cannot reach outside the package, or outside
+     * the directory that images are extracted to.
+     *
+     * @return -1 if the name is not that of an image
+     */
+    static int idOf( String name ) {
+        if( ! name.startsWith( "image" ) ) return -1;
+        
+        int id = 0;
+        int i  = 5;
+        for( ; i < name.length() && name.charAt( i ) != '.'; i++ ) {
+            char c = name.charAt( i );
+            if( c < '0' || c > '9' || i >= 14 ) return -1; //at most 9 digits
+            id = id * 10 + ( c - '0' );
+        }
+        
+        if( i == 5 || i >= name.length() - 1 ) return -1; //no digits or no extension
+        
+        for( i++; i < name.length(); i++ ) {
+            char c = name.charAt( i );
+            if( ! ( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' ) ) ) return -1;
+        }
+        
+        return id;
+    }
+    
+    //the position of an image in the image list
+    private int indexOf( int id ) {
+        List<String> names = names();
+        for( int i = 0; i < names.size(); i++ ) {
+            if( idOf( names.get( i ) ) == id ) return i;
+        }
+        return -1;
+    }
+    
+    //the file of an image within a package
+    private File imageFile( int id ) {
+        int index = indexOf( id );
+        return new File( file, index >= 0 ? names().get( index ) : "image" + id + ".tiff" );
+    }
+    
+    //the inline data of an image - a byte[] or PListData, null if none
+    private Object inlineData( int id ) {
+        List<Object> images = (List<Object>) plist.get( "Images" );
+        int index = indexOf( id );
+        if( images == null || index < 0 || index >= images.size() ) return null;
+        
+        Object data = images.get( index );
+        return ( data instanceof PListData || data instanceof byte[] ) ? data : null;
+    }
+    
+    /**
+     * Open the encoded image
+     * @return null if there is no such image
+     */
+    InputStream open( int id ) throws IOException {
+        if( file.isDirectory() ) {
+            File imageFile = imageFile( id );
+            if( ! imageFile.exists() ) return null;
+            return OGUtils.openStream( imageFile );
+        }
+        
+        Object data = inlineData( id );
+        if( data instanceof PListData ) return new ByteArrayInputStream( ((PListData) data).bytes() );
+        if( data instanceof byte[]    ) return new ByteArrayInputStream( (byte[]) data );
+        return null;
+    }
+    
+    //get an image from the cache
+    private synchronized BufferedImage cached( long key ) {
+        SoftReference<BufferedImage> ref = cache.get( key );
+        return ref != null ? ref.get() : null;
+    }
+    
+    private synchronized void cache( long key, BufferedImage image ) {
+        cache.put( key, new SoftReference<BufferedImage>( image ) );
+    }
+    
+    /**
+     * Read and decode an image, or get it from the cache
+     * @return null if there is no such image
+     */
+    BufferedImage read( int id ) throws IOException {
+        long key = ((long) id) << 32;
+        BufferedImage image = cached( key );
+        if( image != null ) return image;
+        
+        InputStream in = open( id );
+        if( in == null ) return null;
+        try {
+            image = ImageIO.read( in );
+        }
+        finally {
+            in.close();
+        }
+        
+        if( image != null ) cache( key, image );
+        return image;
+    }
+    
+    /**
+     * Get an image scaled down to fit within a square
+     *
+     * @param maxSize the size of the square
+     * @return null if there is no such image
+     */
+    BufferedImage thumbnail( int id, int maxSize ) throws IOException {
+        if( maxSize <= 0 ) throw new IllegalArgumentException( "thumbnail size " + maxSize );
+        
+        long key = ( ((long) id) << 32 ) | maxSize;
+        BufferedImage thumbnail = cached( key );
+        if( thumbnail != null ) return thumbnail;
+        
+        BufferedImage image = read( id );
+        if( image == null ) return null;
+        
+        thumbnail = scale( image, maxSize );
+        cache( key, thumbnail );
+        return thumbnail;
+    }
+    
+    /**
+     * Scale an image down to fit within a square, halving the size in steps
+     * so that bilinear filtering does not skip pixels
+     */
+    static BufferedImage scale( BufferedImage image, int maxSize ) {
+        int width  = image.getWidth();
+        int height = image.getHeight();
+        if( width <= maxSize && height <= maxSize ) return image;
+        
+        double scale = maxSize / (double) Math.max( width, height );
+        int targetWidth  = Math.max( 1, (int) Math.round( width  * scale ) );
+        int targetHeight = Math.max( 1, (int) Math.round( height * scale ) );
+        
+        BufferedImage scaled = image;
+        do {
+            width  = Math.max( targetWidth,  width  / 2 );
+            height = Math.max( targetHeight, height / 2 );
+            
+            BufferedImage step = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+            Graphics2D g = step.createGraphics();
+            try {
+                g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+                g.drawImage( scaled, 0, 0, width, height, null );
+            }
+            finally {
+                g.dispose();
+            }
+            
+            scaled = step;
+        }
+        while( width != targetWidth || height != targetHeight );
+        
+        return scaled;
+    }
+    
+    /**
+     * Write all the images to a directory, without decoding them
+     *
+     * @param dir the directory, created if necessary
+     * @param executor the executor to write the images on
+     * @return the written files, in image list order
+     * @throws IOException the first failure, in image list order
+     */
+    List<File> extract( final File dir, Executor executor ) throws IOException {
+        if( ! dir.isDirectory() && ! dir.mkdirs() ) {
+            throw new IOException( "Could not create " + dir );
+        }
+        
+        List<FutureTask<File>> tasks = new ArrayList<FutureTask<File>>();
+        for( final String name : names() ) {
+            final int id = idOf( name );
+            if( id < 0 ) continue;
+            
+            FutureTask<File> task = new FutureTask<File>( new Callable<File>() {
+                public File call() throws Exception {
+                    return copy( id, new File( dir, name ) );
+                }
+            });
+            
+            tasks.add( task );
+            executor.execute( task );
+        }
+        
+        //the images not yet started are cancelled if any fails, or if this
+        //thread is interrupted
+        List<File> files = new ArrayList<File>( tasks.size() );
+        try {
+            for( FutureTask<File> task : tasks ) {
+                File written = task.get();
+                if( written != null ) files.add( written );
+            }
+        }
+        catch( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while extracting images of " + file );
+        }
+        catch( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if( cause instanceof IOException ) throw (IOException) cause;
+            if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            throw new RuntimeException( cause );
+        }
+        finally {
+            for( FutureTask<File> task : tasks ) task.cancel( false );
+        }
+        
+        return files;
+    }
+    
+    /**
+     * Copy the encoded bytes of an image to a file
+     * @return null if there is no such image
+     */
+    private File copy( int id, File target ) throws IOException {
+        InputStream in   = null;
+        Object inline    = null;
+        
+        if( file.isDirectory() ) {
+            File source = imageFile( id );
+            if( ! source.exists() ) return null;
+            in = new FileInputStream( source );
+        }
+        else {
+            inline = inlineData( id );
+            if( inline == null ) return null;
+        }
+        
+        try {
+            OutputStream out = new FileOutputStream( target );
+            try {
+                if( in != null ) {
+                    byte[] buffer = new byte[ OGUtils.BUFFER_SIZE ];
+                    int count;
+                    while( ( count = in.read( buffer ) ) >= 0 ) {
+                        out.write( buffer, 0, count );
+                    }
+                }
+                else if( inline instanceof PListData ) {
+                    ((PListData) inline).writeTo( out );
+                }
+                else {
+                    out.write( (byte[]) inline );
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            if( in != null ) in.close();
+        }
+        
+        return target;
+    }
+}
@@ -0,0 +1,470 @@
+package org.epistem.graffle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.epistem.util.IntMap;
+
+/**
+ * A sidecar index of the byte ranges of the sheets and graphics of an xml
+ * plist document, so that they can be read and parsed individually. The 
+ * index is kept in a file next to the document and is rebuilt when the 
+ * size or modification time of the document changes.
+ * 
+ * The ranges of a gzipped document are within the decompressed bytes, so
+ * a gzipped document is decompressed once and held in memory. Only the 
+ * parsing is saved for those.
+ *
+ * @author nickmain
+ */
+final class OGIndex {
+
+    private static final int MAGIC   = 0x4f474958; //"OGIX"
+    private static final int VERSION = 1;
+
+    /**
+     * The suffix of the index file name
+     */
+    static final String SUFFIX = ".ogindex";
+    
+    //the fields of a sheet entry
+    private static final int SHEET_START = 0;
+    private static final int SHEET_END   = 1;
+    private static final int LIST_START  = 2; //the GraphicsList, -1 if none
+    private static final int LIST_END    = 3;
+    
+    //the fields of a graphic entry
+    static final int ID     = 0;
+    static final int SHEET  = 1;
+    static final int PARENT = 2; //the entry of the parent group, -1 if none
+    static final int START  = 3;
+    static final int END    = 4;
+    
+    private final File file;
+    private final boolean gzipped;
+    private final long length;
+    private final long lastModified;
+    
+    private int dataLength;        //the length of the (decompressed) plist
+    private int arrayStart = -1;   //the top level Sheets or GraphicsList array
+    private int arrayEnd   = -1;
+    private boolean multiSheet;    //whether the array is the Sheets
+    
+    private byte[] decompressed;   //the whole plist, if gzipped
+    
+    private final List<int[]> sheets   = new ArrayList<int[]>();
+    private final List<int[]> graphics = new ArrayList<int[]>();
+    private final IntMap<Integer> graphicsById = new IntMap<Integer>();
+    
+    private OGIndex( File file ) throws IOException {
+        this.file         = file;
+        this.gzipped      = OGUtils.isGzipped( file );
+        this.length       = file.length();
+        this.lastModified = file.lastModified();
+    }
+    
+    /**
+     * Load the index of a plist file, building it if there is no up to date
+     * index file.
+     * 
+     * @param file the plist file
+     * @return null if the file is a binary plist, which needs no index
+     */
+    static OGIndex load( File file ) throws IOException {
+        if( BinaryPListParser.isBinary( OGUtils.readHeader( file, 8 ) ) ) return null;
+        
+        OGIndex index = new OGIndex( file );
+        File indexFile = new File( file.getParentFile(), file.getName() + SUFFIX );
+        
+        if( indexFile.isFile() && index.read( indexFile ) ) return index;
+        
+        byte[] data = OGUtils.readFully( file );
+        index.build( data );
+        if( index.gzipped ) index.decompressed = data;
+        
+        index.write( indexFile );
+        return index;
+    }
+    
+    /**
+     * Parse the top level of the document. The Sheets (or GraphicsList) array
+     * is only read and parsed an element at a time as it is accessed.
+     */
+    Object root( ParseOptions options ) throws Exception {
+        if( arrayStart < 0 ) {
+            return PListParser.parse( read( 0, dataLength ), 0, dataLength, options, null );
+        }
+        
+        List<Object> array = multiSheet ? 
+                                 new SheetList( options ) : 
+                                 new RangeList( arrayStart, arrayEnd, options );
+        
+        return PListParser.parse( splice( 0, dataLength, arrayStart, arrayEnd ), 
+                                  options, Collections.singletonList( array ) );
+    }
+    
+    /**
+     * Get the number of the entry for the graphic with the given id. Ids are
+     * only unique within a sheet so this is the last graphic with the id.
+     * 
+     * @return -1 if there is no such graphic
+     */
+    int graphicEntry( int id ) {
+        Integer entry = graphicsById.get( id );
+        return entry != null ? entry : -1;
+    }
+    
+    /**
+     * Get a graphic entry
+     */
+    int[] graphic( int entry ) {
+        return graphics.get( entry );
+    }
+    
+    /**
+     * Read and parse the dict of a graphic
+     */
+    Object parseGraphic( int[] entry, ParseOptions options ) throws Exception {
+        byte[] data = read( entry[START], entry[END] );
+        return PListParser.parse( data, 0, data.length, options, null );
+    }
+    
+    /**
+     * The sheets of a multi-sheet document, each read and parsed when first
+     * accessed - with its graphics read and parsed when they are accessed
+     */
+    private class SheetList extends AbstractList<Object> {
+        private final ParseOptions options;
+        private final Object[] loaded = new Object[ sheets.size() ];
+        
+        SheetList( ParseOptions options ) {
+            this.options = options;
+        }
+        
+        @Override
+        public synchronized Object get( int index ) {
+            if( loaded[index] == null ) {
+                int[] sheet = sheets.get( index );
+                
+                try {
+                    if( sheet[LIST_START] < 0 ) {
+                        byte[] data = read( sheet[SHEET_START], sheet[SHEET_END] );
+                        loaded[index] = PListParser.parse( data, 0, data.length, options, null );
+                    }
+                    else {
+                        List<Object> graphicsList = new RangeList( sheet[LIST_START], sheet[LIST_END], options );
+                        byte[] data = splice( sheet[SHEET_START], sheet[SHEET_END], 
+                                              sheet[LIST_START], sheet[LIST_END] );
+                        
+                        loaded[index] = PListParser.parse( data, options, Collections.singletonList( graphicsList ) );
+                    }
+                }
+                catch( Exception ex ) {
+                    throw new RuntimeException( "Could not read sheet " + index + " of " + file, ex );
+                }
+            }
+            
+            return loaded[index];
+        }
+
+        @Override
+        public int size() {
+            return loaded.length;
+        }
+    }
+    
+    /**
+     * An array that is read and parsed when first accessed
+     */
+    private class RangeList extends AbstractList<Object> {
+        private final int start;
+        private final int end;
+        private final ParseOptions options;
+        private List<Object> list;
+        
+        RangeList( int start, int end, ParseOptions options ) {
+            this.start   = start;
+            this.end     = end;
+            this.options = options;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private synchronized List<Object> list() {
+            if( list == null ) {
+                try {
+                    byte[] data = read( start, end );
+                    list = (List<Object>) PListParser.parse( data, 0, data.length, options, null );
+                }
+                catch( Exception ex ) {
+                    throw new RuntimeException( "Could not read array at " + start + " of " + file, ex );
+                }
+            }
+            
+            return list;
+        }
+        
+        @Override
+        public Object get( int index ) {
+            return list().get( index );
+        }
+
+        @Override
+        public int size() {
+            return list().size();
+        }
+    }
+    
+    //read a range with a gap in it replaced by a lazy element
+    private byte[] splice( int start, int end, int gapStart, int gapEnd ) throws IOException {
+        byte[] head = read( start, gapStart );
+        byte[] tail = read( gapEnd, end );
+        
+        byte[] data = new byte[ head.length + PListParser.LAZY_TAG.length + tail.length ];
+        System.arraycopy( head, 0, data, 0, head.length );
+        System.arraycopy( PListParser.LAZY_TAG, 0, data, head.length, PListParser.LAZY_TAG.length );
+        System.arraycopy( tail, 0, data, head.length + PListParser.LAZY_TAG.length, tail.length );
+        return data;
+    }
+    
+    /**
+     * Read a range of the (decompressed) plist
+     */
+    private byte[] read( int start, int end ) throws IOException {
+        byte[] data = new byte[ end - start ];
+        
+        if( ! gzipped ) {
+            RandomAccessFile in = new RandomAccessFile( file, "r" );
+            try {
+                in.seek( start );
+                in.readFully( data );
+            }
+            finally {
+                in.close();
+            }
+            return data;
+        }
+        
+        synchronized( this ) {
+            if( decompressed == null ) decompressed = OGUtils.readFully( file );
+        }
+        
+        if( end > decompressed.length ) throw new IOException( "Index is out of date for " + file );
+        System.arraycopy( decompressed, start, data, 0, data.length );
+        return data;
+    }
+    
+    //clear the entries and the position of the top level array
+    private void reset() {
+        dataLength = 0;
+        arrayStart = -1;
+        arrayEnd   = -1;
+        multiSheet = false;
+        
+        sheets.clear();
+        graphics.clear();
+        graphicsById.clear();
+    }
+    
+    //scan the document for its sheets and graphics
+    private void build( byte[] data ) {
+        reset();
+        dataLength = data.length;
+        
+        int plist = PListScanner.indexOf( data, 0, data.length, PListScanner.bytes( "<plist" ) );
+        int root  = PListScanner.indexOf( data, Math.max( plist, 0 ), data.length, PListScanner.bytes( "<dict" ) );
+        if( root < 0 ) return;
+        
+        List<int[]> entries = new ArrayList<int[]>();
+        int rootEnd = PListScanner.elements( data, root, data.length, entries );
+        
+        for( int i = 0; i + 1 < entries.size(); i += 2 ) {
+            String key   = PListScanner.text( data, entries.get( i )[0], entries.get( i )[1] );
+            int[]  value = entries.get( i + 1 );
+            if( ! PListScanner.isElement( data, value[0], value[1], "array" ) ) continue;
+            
+            if( key.equals( "Sheets" ) ) {
+                arrayStart = value[0];
+                arrayEnd   = value[1];
+                multiSheet = true;
+                
+                List<int[]> sheetRanges = new ArrayList<int[]>();
+                PListScanner.elements( data, value[0], value[1], sheetRanges );
+                for( int[] sheet : sheetRanges ) {
+                    addSheet( data, sheet[0], sheet[1] );
+                }
+            }
+            else if( key.equals( "GraphicsList" ) && sheets.isEmpty() ) {
+                //a flat document is its own sheet
+                arrayStart = value[0];
+                arrayEnd   = value[1];
+                
+                sheets.add( new int[] { root, rootEnd, value[0], value[1] } );
+                addGraphics( data, value, 0, -1 );
+            }
+        }
+    }
+    
+    private void addSheet( byte[] data, int start, int end ) {
+        int[] sheet = { start, end, -1, -1 };
+        int sheetIndex = sheets.size();
+        sheets.add( sheet );
+        
+        int[] list = value( data, start, end, "GraphicsList" );
+        if( list != null ) {
+            sheet[LIST_START] = list[0];
+            sheet[LIST_END]   = list[1];
+            addGraphics( data, list, sheetIndex, -1 );
+        }
+    }
+    
+    private void addGraphics( byte[] data, int[] array, int sheet, int parent ) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        PListScanner.elements( data, array[0], array[1], ranges );
+        
+        for( int[] range : ranges ) {
+            if( ! PListScanner.isElement( data, range[0], range[1], "dict" ) ) continue;
+            
+            List<int[]> entries = new ArrayList<int[]>();
+            PListScanner.elements( data, range[0], range[1], entries );
+            
+            int   id    = -1;
+            int[] kids  = null;
+            for( int i = 0; i + 1 < entries.size(); i += 2 ) {
+                String key   = PListScanner.text( data, entries.get( i )[0], entries.get( i )[1] );
+                int[]  value = entries.get( i + 1 );
+                
+                if( key.equals( "ID" ) ) {
+                    id = Integer.parseInt( PListScanner.text( data, value[0], value[1] ) );
+                }
+                else if( key.equals( "Graphics" ) ) {
+                    kids = value;
+                }
+            }
+            
+            int entry = graphics.size();
+            graphics.add( new int[] { id, sheet, parent, range[0], range[1] } );
+            graphicsById.put( id, entry );
+            
+            if( kids != null ) addGraphics( data, kids, sheet, entry );
+        }
+    }
+    
+    //find the value of a key in a dict
+    private static int[] value( byte[] data, int start, int end, String key ) {
+        List<int[]> entries = new ArrayList<int[]>();
+        PListScanner.elements( data, start, end, entries );
+        
+        for( int i = 0; i + 1 < entries.size(); i += 2 ) {
+            if( key.equals( PListScanner.text( data, entries.get( i )[0], entries.get( i )[1] ) ) ) {
+                return entries.get( i + 1 );
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Read an index file
+     * 
+     * @return false if the index file is out of date or unreadable - in 
+     *         which case the index is left empty
+     */
+    private boolean read( File indexFile ) {
+        reset();
+        
+        try {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) );
+            try {
+                if( in.readInt() != MAGIC || in.readInt() != VERSION ) return false;
+                if( in.readLong() != length || in.readLong() != lastModified ) return false;
+                
+                dataLength = in.readInt();
+                arrayStart = in.readInt();
+                arrayEnd   = in.readInt();
+                multiSheet = in.readBoolean();
+                
+                readEntries( in, sheets, 4 );
+                readEntries( in, graphics, 5 );
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch( IOException ex ) {
+            reset();
+            return false;
+        }
+        
+        for( int i = 0; i < graphics.size(); i++ ) {
+            graphicsById.put( graphics.get( i )[ID], i );
+        }
+        
+        return true;
+    }
+    
+    private static void readEntries( DataInputStream in, List<int[]> entries, int size ) throws IOException {
+        int count = in.readInt();
+        for( int i = 0; i < count; i++ ) {
+            int[] entry = new int[ size ];
+            for( int j = 0; j < size; j++ ) entry[j] = in.readInt();
+            entries.add( entry );
+        }
+    }
+    
+    /**
+     * Write the index file via a temporary file. Failure to write is not 
+     * fatal since the index can be rebuilt.
+     */
+    private void write( File indexFile ) {
+        File temp = null;
+        
+        try {
+            temp = File.createTempFile( indexFile.getName(), ".tmp", indexFile.getParentFile() );
+            
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+            try {
+                out.writeInt( MAGIC );
+                out.writeInt( VERSION );
+                out.writeLong( length );
+                out.writeLong( lastModified );
+                out.writeInt( dataLength );
+                out.writeInt( arrayStart );
+                out.writeInt( arrayEnd );
+                out.writeBoolean( multiSheet );
+                
+                writeEntries( out, sheets );
+                writeEntries( out, graphics );
+            }
+            finally {
+                out.close();
+            }
+            
+            //another writer may have got there first
+            if( ! temp.renameTo( indexFile ) ) {
+                indexFile.delete();
+                if( ! temp.renameTo( indexFile ) ) temp.delete();
+            }
+        }
+        catch( IOException ex ) {
+            if( temp != null ) temp.delete();
+        }
+    }
+    
+    private static void writeEntries( DataOutputStream out, List<int[]> entries ) throws IOException {
+        out.writeInt( entries.size() );
+        for( int[] entry : entries ) {
+            for( int value : entry ) out.writeInt( value );
+        }
+    }
+}
@@ -14,7 +14,8 @@ import static org.epistem.graffle.OGUtils.*;
 public final class OGSheet {
 
     private final Map<String,Object> dict;
-    private List<OGGraphic> oggraphics;
+    private volatile List<OGGraphic> oggraphics;
+    private volatile OGGeometry geometry;
     
     /**
      * The layers
@@ -45,16 +46,46 @@ public final class OGSheet {
      * Get the graphics
      */
     public List<OGGraphic> graphics() {
-        if( oggraphics == null ) {
-            oggraphics = new ArrayList<OGGraphic>();
-            
-            List<Object> graphics = (List<Object>) dict.get( "GraphicsList" );
-            for( Object dict : graphics ) {
-                oggraphics.add( new OGGraphic( this, null, (Map<String,Object>) dict ) );
+        List<OGGraphic> oggraphics = this.oggraphics;
+        if( oggraphics != null ) return oggraphics;
+        
+        synchronized( this ) {
+            if( this.oggraphics == null ) {
+                oggraphics = new ArrayList<OGGraphic>();
+                
+                List<Object> graphics = (List<Object>) dict.get( "GraphicsList" );
+                for( Object dict : graphics ) {
+                    oggraphics.add( new OGGraphic( this, null, (Map<String,Object>) dict ) );
+                }
+                
+                this.oggraphics = oggraphics;
             }
+            
+            return this.oggraphics;
         }
+    }
+    
+    /**
+     * Whether the graphics have been built
+     */
+    boolean hasGraphics() {
+        return oggraphics != null;
+    }
+    
+    /**
+     * Get the geometry of the graphics, parsed when first needed
+     */
+    public OGGeometry geometry() {
+        OGGeometry geometry = this.geometry;
+        if( geometry != null ) return geometry;
         
-        return oggraphics;
+        synchronized( this ) {
+            if( this.geometry == null ) {
+                this.geometry = new OGGeometry( (List<Object>) dict.get( "GraphicsList" ) );
+            }
+            
+            return this.geometry;
+        }
     }
     
     /**
@@ -68,11 +99,16 @@ public final class OGSheet {
      * Get the sheet notes
      */
     public String notes() {
+        return unRTF( notesRTF() );
+    }
+    
+    /**
+     * Get the RTF of the sheet notes
+     * @return null if there are no notes
+     */
+    public String notesRTF() {
         Map<String,Object> bg = (Map<String,Object>) dict.get( "BackgroundGraphic" );
-        String s = unRTF( (String) bg.get( "Notes" ));
-        if( s == null ) return null;
-        if( s.endsWith( "\n" ) ) s = s.substring( 0, s.length() - 1 );
-        return s;
+        return (String) bg.get( "Notes" );
     }
     
     /**
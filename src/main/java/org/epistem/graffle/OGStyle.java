@@ -0,0 +1,103 @@
+package org.epistem.graffle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The stroke style of a graphic. Styles are immutable and interned, so the
+ * many graphics with the same style share one instance and styles may be
+ * compared by identity.
+ *
+ * @author nickmain
+ */
+@SuppressWarnings("unchecked")
+public final class OGStyle {
+    
+    private static final ConcurrentMap<OGStyle, OGStyle> interned =
+        new ConcurrentHashMap<OGStyle, OGStyle>();
+    
+    /**
+     * The style of a graphic with no stroke style
+     */
+    public static final OGStyle PLAIN = intern( new OGStyle( 0, "0", "0" ) );
+    
+    /**
+     * The stroke pattern (zero is solid)
+     */
+    public final int pattern;
+    
+    /**
+     * Whether the stroke is solid
+     */
+    public final boolean solid;
+    
+    /**
+     * The head arrow type - null if the stroke does not say
+     */
+    public final String headArrow;
+    
+    /**
+     * The tail arrow type - null if the stroke does not say
+     */
+    public final String tailArrow;
+    
+    private final int hash;
+    
+    private OGStyle( int pattern, String headArrow, String tailArrow ) {
+        this.pattern   = pattern;
+        this.solid     = pattern == 0;
+        this.headArrow = headArrow;
+        this.tailArrow = tailArrow;
+        
+        hash = pattern * 961
+             + ( headArrow != null ? headArrow.hashCode() * 31 : 0 )
+             + ( tailArrow != null ? tailArrow.hashCode() : 0 );
+    }
+    
+    /**
+     * Get the style of a graphic dictionary
+     */
+    static OGStyle of( Map<String,Object> dict ) {
+        Map<String,Object> style = (Map<String,Object>) dict.get( "Style" );
+        if( style == null ) return PLAIN;
+        Map<String,Object> stroke = (Map<String,Object>) style.get( "stroke" );
+        if( stroke == null ) return PLAIN;
+        
+        Integer pattern = (Integer) stroke.get( "Pattern" );
+        
+        return intern( new OGStyle( pattern != null ? pattern : 0,
+                                    (String) stroke.get( "HeadArrow" ),
+                                    (String) stroke.get( "TailArrow" ) ) );
+    }
+    
+    private static OGStyle intern( OGStyle style ) {
+        OGStyle existing = interned.putIfAbsent( style, style );
+        return existing != null ? existing : style;
+    }
+    
+    @Override
+    public boolean equals( Object obj ) {
+        if( obj == this ) return true;
+        if( !( obj instanceof OGStyle ) ) return false;
+        
+        OGStyle other = (OGStyle) obj;
+        return pattern == other.pattern
+            && equal( headArrow, other.headArrow )
+            && equal( tailArrow, other.tailArrow );
+    }
+    
+    private static boolean equal( String a, String b ) {
+        return a == null ? b == null : a.equals( b );
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public String toString() {
+        return "Style pattern=" + pattern + " head=" + headArrow + " tail=" + tailArrow;
+    }
+}
@@ -0,0 +1,156 @@
+package org.epistem.graffle;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The grid of cells of a table group, worked out once from the cell
+ * positions. Cells whose top (or left) edges are within TOLERANCE of each
+ * other are placed in the same row (or column).
+ *
+ * @author nickmain
+ */
+public final class OGTableLayout {
+    
+    /**
+     * The distance within which coordinates are considered equal
+     */
+    public static final double TOLERANCE = 0.5;
+    
+    private final OGGraphic[][] grid; //[row][column], null where there is no cell
+    private final double[] rowY;      //top of each row
+    private final double[] columnX;   //left of each column
+    private final List<List<OGGraphic>> rows;
+    
+    OGTableLayout( List<OGGraphic> cells ) {
+        int count = cells.size();
+        double[] xs = new double[ count ];
+        double[] ys = new double[ count ];
+        
+        for( int i = 0; i < count; i++ ) {
+            OGGraphic cell = cells.get( i );
+            int slot = cell.geometrySlot();
+            if( slot >= 0 ) {
+                OGGeometry geometry = cell.sheet.geometry();
+                xs[i] = geometry.x( slot );
+                ys[i] = geometry.y( slot );
+            }
+            else {
+                Rectangle2D bounds = cell.bounds();
+                xs[i] = bounds.getX();
+                ys[i] = bounds.getY();
+            }
+        }
+        
+        rowY    = clusters( ys );
+        columnX = clusters( xs );
+        grid    = new OGGraphic[ rowY.length ][ columnX.length ];
+        
+        //a later cell in the same position replaces an earlier one
+        for( int i = 0; i < count; i++ ) {
+            grid[ indexOf( rowY, ys[i] ) ][ indexOf( columnX, xs[i] ) ] = cells.get( i );
+        }
+        
+        List<List<OGGraphic>> rows = new ArrayList<List<OGGraphic>>( grid.length );
+        for( OGGraphic[] row : grid ) {
+            List<OGGraphic> rowList = new ArrayList<OGGraphic>( row.length );
+            for( OGGraphic cell : row ) {
+                if( cell != null ) rowList.add( cell );
+            }
+            rows.add( Collections.unmodifiableList( rowList ) );
+        }
+        this.rows = Collections.unmodifiableList( rows );
+    }
+    
+    /**
+     * Find the start of each cluster of values - a cluster holds the
+     * values within TOLERANCE of its first (lowest) value
+     */
+    private static double[] clusters( double[] values ) {
+        double[] sorted = values.clone();
+        Arrays.sort( sorted );
+        
+        double[] starts = new double[ sorted.length ];
+        int count = 0;
+        for( double value : sorted ) {
+            if( count == 0 || value - starts[ count - 1 ] > TOLERANCE ) {
+                starts[ count++ ] = value;
+            }
+        }
+        
+        return Arrays.copyOf( starts, count );
+    }
+    
+    //the index of the cluster holding the value
+    private static int indexOf( double[] starts, double value ) {
+        int index = Arrays.binarySearch( starts, value );
+        return index >= 0 ? index : -index - 2;
+    }
+    
+    /**
+     * The number of rows
+     */
+    public int rowCount() {
+        return grid.length;
+    }
+    
+    /**
+     * The number of columns
+     */
+    public int columnCount() {
+        return columnX.length;
+    }
+    
+    /**
+     * Get a cell
+     * @return null if there is no cell at that position
+     */
+    public OGGraphic cell( int row, int column ) {
+        return grid[ row ][ column ];
+    }
+    
+    /**
+     * Get the cells of a row, by column. This is the layout's own array and
+     * must not be modified.
+     */
+    public OGGraphic[] row( int row ) {
+        return grid[ row ];
+    }
+    
+    /**
+     * Get the top of a row
+     */
+    public double rowY( int row ) {
+        return rowY[ row ];
+    }
+    
+    /**
+     * Get the left of a column
+     */
+    public double columnX( int column ) {
+        return columnX[ column ];
+    }
+    
+    /**
+     * Get the rows, top to bottom, each holding its cells left to right.
+     * Positions with no cell are skipped.
+     */
+    public List<List<OGGraphic>> rows() {
+        return rows;
+    }
+    
+    /**
+     * Whether every position in the grid has a cell
+     */
+    public boolean isComplete() {
+        for( OGGraphic[] row : grid ) {
+            for( OGGraphic cell : row ) {
+                if( cell == null ) return false;
+            }
+        }
+        return true;
+    }
+}
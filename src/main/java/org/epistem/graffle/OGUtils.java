@@ -1,10 +1,15 @@
 package org.epistem.graffle;
 
-import java.io.StringReader;
-
-import javax.swing.text.BadLocationException;
-import javax.swing.text.DefaultStyledDocument;
-import javax.swing.text.rtf.RTFEditorKit;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Utility methods
@@ -14,27 +19,167 @@ import javax.swing.text.rtf.RTFEditorKit;
 public class OGUtils {
 
     /**
-     * Extract text from RTF
+     * Buffer size used when streaming document files
      */
-    static String unRTF( String s ) {
-        if( s == null ) return null;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Open a document file for streaming. Gzip compressed files are detected
+     * by their magic number and decompressed on the fly.
+     */
+    static InputStream openStream( File file ) throws IOException {
+        InputStream in = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
         
-        DefaultStyledDocument doc = new DefaultStyledDocument();
-        RTFEditorKit kit = new RTFEditorKit();
+        try {
+            in.mark( 2 );
+            int magic = in.read() | ( in.read() << 8 );
+            in.reset();
+            
+            if( magic == GZIPInputStream.GZIP_MAGIC ) {
+                in = new BufferedInputStream( new GZIPInputStream( in, BUFFER_SIZE ), BUFFER_SIZE );
+            }
+        }
+        catch( IOException ex ) {
+            in.close();
+            throw ex;
+        }
         
+        return in;
+    }
+    
+    /**
+     * Whether a file is gzip compressed
+     */
+    static boolean isGzipped( File file ) throws IOException {
+        InputStream in = new FileInputStream( file );
         try {
-            kit.read( new StringReader( s ), doc, 0 );
+            int magic = in.read() | ( in.read() << 8 );
+            return magic == GZIPInputStream.GZIP_MAGIC;
         }
-        catch( Exception ex ) {
-            throw new RuntimeException( ex );
+        finally {
+            in.close();
         }
+    }
+    
+    /**
+     * Read the first bytes of a document file, after any decompression
+     * 
+     * @return the bytes - fewer than requested if the file is shorter
+     */
+    static byte[] readHeader( File file, int length ) throws IOException {
+        byte[] header = new byte[ length ];
+        int count = 0;
         
+        InputStream in = openStream( file );
         try {
-            s = doc.getText( 0, doc.getLength() );
-        } catch( BadLocationException e ) {
-            throw new RuntimeException( e );
+            int read;
+            while( count < length && ( read = in.read( header, count, length - count ) ) >= 0 ) {
+                count += read;
+            }
+        }
+        finally {
+            in.close();
         }
         
-        return s;
+        if( count < length ) {
+            byte[] shorter = new byte[ count ];
+            System.arraycopy( header, 0, shorter, 0, count );
+            return shorter;
+        }
+        
+        return header;
+    }
+    
+    /**
+     * Map a document file into memory. A gzipped file cannot be mapped so it
+     * is decompressed into a heap buffer instead.
+     */
+    static ByteBuffer map( File file ) throws IOException {
+        if( isGzipped( file ) ) return ByteBuffer.wrap( readFully( file ) );
+        
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Read the whole of a document file, decompressing it if it is gzipped
+     */
+    static byte[] readFully( File file ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( (int) Math.min( file.length(), Integer.MAX_VALUE - 8 ) );
+        InputStream in = openStream( file );
+        
+        try {
+            byte[] buffer = new byte[ BUFFER_SIZE ];
+            int count;
+            while( ( count = in.read( buffer ) ) >= 0 ) {
+                out.write( buffer, 0, count );
+            }
+        }
+        finally {
+            in.close();
+        }
+        
+        return out.toByteArray();
+    }
+
+    //exactly representable powers of ten
+    private static final double[] POWERS_OF_TEN = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11, 
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    /**
+     * Parse a decimal number without creating a string. The result is the
+     * same as that of Double.parseDouble, including the NumberFormatException
+     * for a range with no digits.
+     */
+    static double parseDouble( char[] chars, int start, int end ) {
+        boolean negative = start < end && chars[start] == '-';
+        int pos = negative ? start + 1 : start;
+        
+        long mantissa = 0;
+        int digits    = 0;  //significant digits
+        int decimals  = -1;
+        boolean any   = false;
+        
+        for( ; pos < end; pos++ ) {
+            char c = chars[pos];
+            
+            if( c == '.' && decimals < 0 ) {
+                decimals = 0;
+                continue;
+            }
+            
+            if( c < '0' || c > '9' ) break;
+            
+            any = true;
+            mantissa = mantissa * 10 + ( c - '0' );
+            if( mantissa != 0 ) digits++;
+            if( decimals >= 0 ) decimals++;
+        }
+        
+        //the mantissa and power of ten are exact so a single division is
+        //correctly rounded - anything else goes to the library
+        if( pos < end || digits > 15 || decimals > 22 || ! any 
+         || ( negative && mantissa == 0 ) ) {
+            return Double.parseDouble( new String( chars, start, end - start ) );
+        }
+        
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[ decimals ] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Extract text from RTF, via the shared cache
+     * @return the text without the final newline
+     */
+    static String unRTF( String s ) {
+        return RTFCache.SHARED.toText( s );
     }
 }
@@ -4,13 +4,16 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.epistem.graffle.OGGraphic.GraphicClass;
+import org.epistem.util.IntMap;
 
 /**
- * An OmniGraffle document
+ * An OmniGraffle document. Documents are safe to use from several threads.
  *
  * @author nickmain
  */
@@ -19,16 +22,202 @@ public final class OmniGraffleDoc {
 
     private final File file;
     private final Map<String, Object> plist;    
+    private final OGIndex index; //null if not indexed
+    private final ParseOptions options;
+    private final OGImages images;
 
-    private Map<Integer,OGGraphic> graphics;
-    private List<OGSheet> ogsheets;
+    private IntMap<OGGraphic> graphics; //by id, or by index entry if indexed
+    private OGSheet[] indexedSheets;    //built one at a time, if indexed
+    private volatile List<OGSheet> ogsheets;
     
     /**
-     * @param file the document file
+     * @param file the document file - a flat file (plain or gzipped xml) or
+     *             a package directory
      */
     public OmniGraffleDoc( File file ) throws Exception {
-        this.file = file;
-        plist = (Map<String, Object>) PListParser.parse( file );
+        this( file, new ParseOptions() );
+    }
+    
+    /**
+     * @param file the document file - a flat file (plain or gzipped xml) or
+     *             a package directory
+     * @param options the parse options
+     */
+    public OmniGraffleDoc( File file, ParseOptions options ) throws Exception {
+        this.file    = file;
+        this.options = options;
+        
+        index = options.isIndexed() ? 
+                    OGIndex.load( file.isDirectory() ? new File( file, "data.plist" ) : file ) :
+                    null;
+        
+        plist = (Map<String, Object>)( index != null ? 
+                                           index.root( options ) : 
+                                           PListParser.parse( file, options ) );
+        
+        images = new OGImages( file, plist );
+    }
+    
+    //a streamed document, which retains no sheets
+    private OmniGraffleDoc( File file, Map<String, Object> plist ) {
+        this.file    = file;
+        this.plist   = plist;
+        this.index   = null;
+        this.options = null;
+        images       = new OGImages( file, plist );
+        ogsheets     = Collections.emptyList();
+    }
+    
+    /**
+     * Load documents in parallel
+     * 
+     * @param files the document files
+     * @param executor the executor to load the documents on
+     * @return the documents, in the same order as the files
+     * @throws Exception the first failure, in file order
+     */
+    public static List<OmniGraffleDoc> loadAll( Collection<File> files, Executor executor ) 
+        throws Exception {
+        return loadAll( files, new ParseOptions(), executor );
+    }
+    
+    /**
+     * Load documents in parallel. The executor may be the same as the one in
+     * the options, and may be one that the calling thread belongs to. If a
+     * document fails then the documents that have not started loading are
+     * cancelled.
+     * 
+     * @param files the document files
+     * @param options the parse options, which are shared by all the documents
+     * @param executor the executor to load the documents on
+     * @return the documents, in the same order as the files
+     * @throws Exception the first failure, in file order
+     */
+    public static List<OmniGraffleDoc> loadAll( Collection<File> files, final ParseOptions options, 
+                                                Executor executor ) throws Exception {
+        List<FutureTask<OmniGraffleDoc>> tasks = new ArrayList<FutureTask<OmniGraffleDoc>>();
+        
+        for( final File file : files ) {
+            FutureTask<OmniGraffleDoc> task = new FutureTask<OmniGraffleDoc>( new Callable<OmniGraffleDoc>() {
+                public OmniGraffleDoc call() throws Exception {
+                    return new OmniGraffleDoc( file, options );
+                }
+            });
+            
+            tasks.add( task );
+            executor.execute( task );
+        }
+        
+        //documents that the executor has not started are loaded on this
+        //thread, so the executor may be the one that this is running on
+        List<OmniGraffleDoc> docs = new ArrayList<OmniGraffleDoc>( tasks.size() );
+        try {
+            for( FutureTask<OmniGraffleDoc> task : tasks ) {
+                task.run(); //does nothing if already started
+                docs.add( task.get() );
+            }
+        }
+        catch( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if( cause instanceof Exception ) throw (Exception) cause;
+            throw ex;
+        }
+        finally {
+            for( FutureTask<OmniGraffleDoc> task : tasks ) task.cancel( false );
+        }
+        
+        return docs;
+    }
+    
+    /**
+     * Read a document, passing each sheet to the handler as soon as it has
+     * been read, and optionally each top level graphic. The sheets and 
+     * graphics are not retained so only one sheet is held in memory at a
+     * time. The document passed to the handler has the metadata but no
+     * sheets or graphics of its own.
+     * 
+     * @param file the document file - a flat file (plain or gzipped xml) or
+     *             a package directory
+     * @param handler the handler to receive the document
+     * @param streamGraphics whether to pass each top level graphic to the 
+     *                       handler as it is read
+     * @return the document
+     */
+    public static OmniGraffleDoc stream( File file, OGDocumentHandler handler, 
+                                         boolean streamGraphics ) throws Exception {
+        Streamer streamer = new Streamer( file, handler, streamGraphics );
+        PListParser.stream( file, streamer );
+        return streamer.document;
+    }
+    
+    /**
+     * Turns the completed plist values of a streamed document into calls to
+     * the handler
+     */
+    private static class Streamer implements PListParser.ValueListener {
+        final OmniGraffleDoc document;
+        final Map<String,Object> metadata = new LinkedHashMap<String, Object>();
+        final OGDocumentHandler handler;
+        final boolean streamGraphics;
+        boolean started;
+        boolean hasSheets;
+        
+        Streamer( File file, OGDocumentHandler handler, boolean streamGraphics ) {
+            this.document = new OmniGraffleDoc( file, metadata );
+            this.handler  = handler;
+            this.streamGraphics = streamGraphics;
+        }
+
+        /** @see org.epistem.graffle.PListParser.ValueListener#completed(java.util.List, java.lang.String, java.lang.Object) */
+        public boolean completed( List<String> path, String key, Object value ) throws Exception {
+            int depth = path.size();
+            
+            //the whole document - which is also the sheet of a flat document
+            if( depth == 0 ) {
+                start();
+                if( ! hasSheets ) {
+                    handler.sheet( new OGSheet( document, (Map<String,Object>) value ) );
+                }
+                handler.endDocument( document );
+                return true;
+            }
+            
+            //document metadata - the sheets are not retained, and the graphics
+            //of a flat document are retained only for its sheet
+            if( depth == 1 ) {
+                if( "Sheets".equals( key ) ) {
+                    hasSheets = true;
+                    return false;
+                }
+                
+                if( ! "GraphicsList".equals( key ) ) metadata.put( key, value );
+                return true;
+            }
+            
+            String section = path.get( 1 );
+            if( ! "Sheets".equals( section ) && ! "GraphicsList".equals( section ) ) return true;
+            start();
+            
+            if( depth == 2 && key == null && section.equals( "Sheets" ) ) {
+                handler.sheet( new OGSheet( document, (Map<String,Object>) value ) );
+                return false;
+            }
+            
+            if( streamGraphics && key == null 
+             && ( depth == 2 || ( depth == 4 && section.equals( "Sheets" ) ) )
+             && "GraphicsList".equals( path.get( depth - 1 ) ) ) {
+                handler.graphic( new OGGraphic( null, null, (Map<String,Object>) value ) );
+                return false;
+            }
+            
+            return true;
+        }
+        
+        private void start() throws Exception {
+            if( started ) return;
+            started = true;
+            handler.startDocument( document );
+        }
     }
     
     /**
@@ -39,12 +228,21 @@ public final class OmniGraffleDoc {
     }
     
     /**
-     * Find a graphic by id
+     * Find a graphic by id. If the document is indexed then only the graphic
+     * (or its top level group) is read. Until its sheet has built its 
+     * graphics the graphic is detached - a separate object from the one that
+     * the sheet will hold. After that the sheet's own graphic is returned.
+     * 
      * @return may be null
      */
-    public OGGraphic getGraphic( int id ) {
+    public synchronized OGGraphic getGraphic( int id ) {
+        if( index != null ) {
+            int entry = index.graphicEntry( id );
+            return entry >= 0 ? indexedGraphic( entry ) : null;
+        }
+        
         if( graphics == null ) {
-            graphics = new HashMap<Integer, OGGraphic>();
+            graphics = new IntMap<OGGraphic>();
             
             for( OGSheet sheet : sheets() ) {
                 registerGraphics( sheet.graphics() );
@@ -54,6 +252,59 @@ public final class OmniGraffleDoc {
         return graphics.get( id );
     }
     
+    //get a graphic via the index, by entry number
+    private OGGraphic indexedGraphic( int entryNumber ) {
+        if( graphics == null ) graphics = new IntMap<OGGraphic>();
+        
+        int[]   entry = index.graphic( entryNumber );
+        int     id    = entry[OGIndex.ID];
+        OGSheet sheet = indexedSheet( entry[OGIndex.SHEET] );
+        
+        //a detached graphic is replaced once the sheet has its own
+        OGGraphic graphic = graphics.get( entryNumber );
+        if( graphic != null && ! ( graphic.detached && sheet.hasGraphics() ) ) return graphic;
+        graphic = null;
+        
+        //a nested graphic is found within its parent
+        if( entry[OGIndex.PARENT] >= 0 ) {
+            OGGraphic parent = indexedGraphic( entry[OGIndex.PARENT] );
+            for( OGGraphic kid : parent.graphics() ) {
+                if( kid.id() == id ) graphic = kid;
+            }
+        }
+        else if( sheet.hasGraphics() ) {
+            for( OGGraphic g : sheet.graphics() ) {
+                if( g.id() == id ) graphic = g;
+            }
+        }
+        else {
+            try {
+                graphic = new OGGraphic( sheet, null, (Map<String,Object>) index.parseGraphic( entry, options ), true );
+            }
+            catch( Exception ex ) {
+                throw new RuntimeException( "Could not read graphic " + id + " of " + file, ex );
+            }
+        }
+        
+        if( graphic != null ) graphics.put( entryNumber, graphic );
+        return graphic;
+    }
+    
+    //get a sheet of an indexed document without reading the other sheets
+    private OGSheet indexedSheet( int sheetIndex ) {
+        if( ogsheets != null ) return ogsheets.get( sheetIndex );
+        
+        List<Object> sheets = (List<Object>) plist.get( "Sheets" );
+        if( indexedSheets == null ) indexedSheets = new OGSheet[ sheets != null ? sheets.size() : 1 ];
+        
+        if( indexedSheets[sheetIndex] == null ) {
+            Object dict = sheets != null ? sheets.get( sheetIndex ) : plist;
+            indexedSheets[sheetIndex] = new OGSheet( this, (Map<String,Object>) dict );
+        }
+        
+        return indexedSheets[sheetIndex];
+    }
+    
     private void registerGraphics( List<OGGraphic> gg ) {
         for( OGGraphic graphic : gg ) {
             graphics.put( graphic.id(), graphic );
@@ -66,13 +317,47 @@ public final class OmniGraffleDoc {
     }
     
     /**
-     * Read the image with the given id 
+     * Read the image with the given id. Images are read from the files of a
+     * package document or from the inline data of a flat document. Recently
+     * read images are cached, so the returned image is shared and must not
+     * be modified.
+     * 
+     * @return null if there is no such image or it cannot be decoded
      */
     public BufferedImage readImage( int id ) throws IOException {
-        if( ! file.isDirectory() ) return null;
-        
-        File imageFile = new File( file, "image" + id + ".tiff" );        
-        return ImageIO.read( imageFile );
+        return images.read( id );
+    }
+    
+    /**
+     * Read the image with the given id, scaled down to fit within a square.
+     * Thumbnails are cached along with the images, so the returned image is
+     * shared and must not be modified.
+     * 
+     * @param maxSize the width and height of the square
+     * @return null if there is no such image or it cannot be decoded
+     */
+    public BufferedImage readThumbnail( int id, int maxSize ) throws IOException {
+        return images.thumbnail( id, maxSize );
+    }
+    
+    /**
+     * Get the file names of the images, such as "image1.tiff"
+     */
+    public List<String> imageNames() {
+        return images.names();
+    }
+    
+    /**
+     * Write all the images to a directory as they are stored in the
+     * document, without decoding them. The images are written in parallel.
+     * 
+     * @param dir the directory to write to, created if necessary
+     * @param executor the executor to write the images on
+     * @return the files written, in the order of the image list
+     * @throws IOException the first failure, in the order of the image list
+     */
+    public List<File> extractImages( File dir, Executor executor ) throws IOException {
+        return images.extract( dir, executor );
     }
     
     /**
@@ -133,20 +418,29 @@ public final class OmniGraffleDoc {
      * Get the sheets
      */
     public List<OGSheet> sheets() {
-        if( ogsheets == null ) {
-            List<Object> sheets = (List<Object>) plist.get( "Sheets" );
-            
-            if( sheets == null ) {
-                sheets = new ArrayList<Object>();
-                sheets.add( plist );
+        List<OGSheet> ogsheets = this.ogsheets;
+        if( ogsheets != null ) return ogsheets;
+        
+        synchronized( this ) {
+            if( this.ogsheets == null ) {
+                List<Object> sheets = (List<Object>) plist.get( "Sheets" );
+                
+                if( sheets == null ) {
+                    sheets = new ArrayList<Object>();
+                    sheets.add( plist );
+                }
+                
+                //reuse the sheets already built for indexed graphics
+                ogsheets = new ArrayList<OGSheet>();
+                for( int i = 0; i < sheets.size(); i++ ) {
+                    OGSheet sheet = indexedSheets != null ? indexedSheets[i] : null;
+                    ogsheets.add( sheet != null ? sheet : new OGSheet( this, (Map<String,Object>) sheets.get( i ) ) );
+                }
+                
+                this.ogsheets = ogsheets;
             }
             
-            ogsheets = new ArrayList<OGSheet>();
-            for( Object dict : sheets ) {
-                ogsheets.add( new OGSheet( this, (Map<String,Object>) dict ) );
-            }
+            return this.ogsheets;
         }
-        
-        return ogsheets;
     }
 }
@@ -0,0 +1,447 @@
+package org.epistem.graffle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of parsed plists. A compact binary snapshot of each
+ * parsed plist is written to disk, keyed by a hash of the file contents,
+ * and is read back with a single sequential read when the same contents
+ * are parsed again.
+ * 
+ * Snapshots are written to a temporary file and then renamed, so several
+ * processes can share a cache directory.
+ *
+ * @author nickmain
+ */
+public class PListCache {
+
+    private static final int MAGIC   = 0x4f475043; //"OGPC"
+    private static final int VERSION = 1;
+    
+    private static final String SUFFIX = ".plcache";
+    
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+    
+    //value tags
+    private static final int DICT    = 1;
+    private static final int ARRAY   = 2;
+    private static final int STRING  = 3;
+    private static final int INTEGER = 4;
+    private static final int LONG    = 5;
+    private static final int REAL    = 6;
+    private static final int TRUE    = 7;
+    private static final int FALSE   = 8;
+    private static final int DATE    = 9;
+    private static final int DATA    = 10;
+    
+    private final File directory;
+    private final AtomicInteger hits   = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    
+    /**
+     * Create a cache that writes each snapshot next to its document
+     */
+    public PListCache() {
+        this( null );
+    }
+    
+    /**
+     * @param directory the directory to hold the snapshots, null to write
+     *                  each snapshot next to its document
+     */
+    public PListCache( File directory ) {
+        this.directory = directory;
+    }
+    
+    /**
+     * The number of parses that were satisfied from the cache
+     */
+    public int hits() {
+        return hits.get();
+    }
+    
+    /**
+     * The number of parses that were not satisfied from the cache
+     */
+    public int misses() {
+        return misses.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "PListCache " + ( directory != null ? directory.getPath() : "(adjacent)" ) 
+               + " hits=" + hits + " misses=" + misses;
+    }
+    
+    /**
+     * Load a plist file from the cache, or parse it and cache it.
+     * Cached plists are always fully materialized - they are not lazy or
+     * projected and their data elements are byte arrays.
+     * 
+     * @param file the plist file or a package directory - the snapshot of
+     *             a package is written next to the package, not inside it
+     */
+    Object load( File file ) throws Exception {
+        File plistFile = file.isDirectory() ? new File( file, "data.plist" ) : file;
+        
+        String key = hash( plistFile );
+        File snapshot = directory != null ? 
+                            new File( directory, key + SUFFIX ) :
+                            new File( file.getParentFile(), file.getName() + SUFFIX );
+        
+        if( snapshot.isFile() ) {
+            Object plist = read( snapshot, key );
+            if( plist != null ) {
+                hits.incrementAndGet();
+                return plist;
+            }
+        }
+        
+        misses.incrementAndGet();
+        
+        Object plist = PListParser.parse( plistFile, new ParseOptions() );
+        write( snapshot, key, plist );
+        return plist;
+    }
+    
+    //hash the file contents
+    private static String hash( File file ) throws IOException {
+        CRC32   crc     = new CRC32();
+        Adler32 adler   = new Adler32();
+        long    length  = 0;
+        byte[]  buffer  = new byte[ OGUtils.BUFFER_SIZE ];
+        
+        InputStream in = new FileInputStream( file );
+        try {
+            int count;
+            while( ( count = in.read( buffer ) ) >= 0 ) {
+                crc.update( buffer, 0, count );
+                adler.update( buffer, 0, count );
+                length += count;
+            }
+        }
+        finally {
+            in.close();
+        }
+        
+        return Long.toHexString( length ) + "-" 
+               + Long.toHexString( crc.getValue() ) 
+               + Long.toHexString( adler.getValue() );
+    }
+    
+    /**
+     * Read a snapshot
+     * 
+     * @return null if the snapshot is for different contents or is unusable
+     */
+    private Object read( File snapshot, String key ) {
+        try {
+            byte[] bytes = new byte[ (int) snapshot.length() ];
+            DataInputStream in = new DataInputStream( new FileInputStream( snapshot ) );
+            try {
+                in.readFully( bytes );
+            }
+            finally {
+                in.close();
+            }
+            
+            return new Reader( ByteBuffer.wrap( bytes ) ).read( key );
+        }
+        catch( IOException ex ) {
+            return null;
+        }
+        catch( RuntimeException ex ) { //corrupt snapshot
+            return null;
+        }
+    }
+    
+    /**
+     * Write a snapshot via a temporary file. Failure to write is not fatal
+     * since the plist has already been parsed.
+     */
+    private void write( File snapshot, String key, Object plist ) {
+        File dir = snapshot.getParentFile();
+        File temp = null;
+        
+        try {
+            if( dir != null ) dir.mkdirs();
+            temp = File.createTempFile( snapshot.getName(), ".tmp", dir );
+            
+            DataOutputStream out = new DataOutputStream( 
+                    new BufferedOutputStream( new FileOutputStream( temp ), OGUtils.BUFFER_SIZE ) );
+            try {
+                new Writer( out ).write( key, plist );
+            }
+            finally {
+                out.close();
+            }
+            
+            //another writer may have got there first
+            if( ! temp.renameTo( snapshot ) ) {
+                snapshot.delete();
+                if( ! temp.renameTo( snapshot ) ) temp.delete();
+            }
+        }
+        catch( IOException ex ) {
+            if( temp != null ) temp.delete();
+        }
+    }
+    
+    /**
+     * Writes the snapshot of a plist - a string table followed by the 
+     * objects in prefix order
+     */
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+        
+        Writer( DataOutputStream out ) {
+            this.out = out;
+        }
+        
+        void write( String key, Object plist ) throws IOException {
+            collectStrings( plist );
+            
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( key );
+            
+            writeVarInt( strings.size() );
+            for( String s : strings ) {
+                byte[] utf8 = s.getBytes( UTF8 );
+                writeVarInt( utf8.length );
+                out.write( utf8 );
+            }
+            
+            writeObject( plist );
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void collectStrings( Object obj ) {
+            if( obj instanceof String ) {
+                addString( (String) obj );
+            }
+            else if( obj instanceof Map ) {
+                for( Map.Entry<String,Object> entry : ((Map<String,Object>) obj).entrySet() ) {
+                    addString( entry.getKey() );
+                    collectStrings( entry.getValue() );
+                }
+            }
+            else if( obj instanceof List ) {
+                for( Object o : (List<Object>) obj ) collectStrings( o );
+            }
+        }
+        
+        private void addString( String s ) {
+            if( stringIndex.containsKey( s ) ) return;
+            stringIndex.put( s, strings.size() );
+            strings.add( s );
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void writeObject( Object obj ) throws IOException {
+            if( obj instanceof String ) {
+                out.write( STRING );
+                writeVarInt( stringIndex.get( obj ) );
+            }
+            else if( obj instanceof Map ) {
+                Map<String,Object> dict = (Map<String,Object>) obj;
+                out.write( DICT );
+                writeVarInt( dict.size() );
+                for( Map.Entry<String,Object> entry : dict.entrySet() ) {
+                    writeVarInt( stringIndex.get( entry.getKey() ) );
+                    writeObject( entry.getValue() );
+                }
+            }
+            else if( obj instanceof List ) {
+                List<Object> array = (List<Object>) obj;
+                out.write( ARRAY );
+                writeVarInt( array.size() );
+                for( Object o : array ) writeObject( o );
+            }
+            else if( obj instanceof Integer ) {
+                out.write( INTEGER );
+                out.writeInt( (Integer) obj );
+            }
+            else if( obj instanceof Long ) {
+                out.write( LONG );
+                out.writeLong( (Long) obj );
+            }
+            else if( obj instanceof Double ) {
+                out.write( REAL );
+                out.writeDouble( (Double) obj );
+            }
+            else if( obj instanceof Boolean ) {
+                out.write( ((Boolean) obj) ? TRUE : FALSE );
+            }
+            else if( obj instanceof Date ) {
+                out.write( DATE );
+                out.writeLong( ((Date) obj).getTime() );
+            }
+            else if( obj instanceof byte[] ) {
+                byte[] data = (byte[]) obj;
+                out.write( DATA );
+                writeVarInt( data.length );
+                out.write( data );
+            }
+            else if( obj instanceof PListData ) {
+                writeObject( ((PListData) obj).bytes() );
+            }
+            else {
+                throw new IOException( "Cannot cache plist object " + obj );
+            }
+        }
+        
+        private void writeVarInt( int value ) throws IOException {
+            while( ( value & ~0x7f ) != 0 ) {
+                out.write( ( value & 0x7f ) | 0x80 );
+                value >>>= 7;
+            }
+            out.write( value );
+        }
+    }
+    
+    /**
+     * Reads a snapshot
+     */
+    private static class Reader {
+        private final ByteBuffer in;
+        private final StringTable table = new StringTable();
+        private final PListDict.KeySets keySets = new PListDict.KeySets();
+        private final ArrayDeque<PListDict.Builder> builders = new ArrayDeque<PListDict.Builder>();
+        private String[] strings;
+        
+        Reader( ByteBuffer in ) {
+            this.in = in;
+        }
+        
+        /**
+         * @return null if the snapshot is not for the given key
+         */
+        Object read( String key ) throws IOException {
+            if( in.getInt() != MAGIC || in.getInt() != VERSION ) return null;
+            if( ! key.equals( readUTF() ) ) return null;
+            
+            strings = new String[ readVarInt() ];
+            char[] chars = new char[ 256 ];
+            for( int i = 0; i < strings.length; i++ ) {
+                int length = readVarInt();
+                if( length > chars.length ) chars = new char[ Math.max( length, chars.length * 2 ) ];
+                
+                int count = decodeUTF8( length, chars );
+                strings[i] = table.intern( chars, 0, count );
+            }
+            
+            return readObject();
+        }
+        
+        private Object readObject() throws IOException {
+            int tag = in.get();
+            switch( tag ) {
+                case STRING:  return strings[ readVarInt() ];
+                case INTEGER: return Integer.valueOf( in.getInt() );
+                case LONG:    return Long.valueOf( in.getLong() );
+                case REAL:    return Double.valueOf( in.getDouble() );
+                case TRUE:    return Boolean.TRUE;
+                case FALSE:   return Boolean.FALSE;
+                case DATE:    return new Date( in.getLong() );
+                
+                case DATA: {
+                    byte[] data = new byte[ readVarInt() ];
+                    in.get( data );
+                    return data;
+                }
+                
+                case ARRAY: {
+                    int size = readVarInt();
+                    List<Object> array = new ArrayList<Object>( size );
+                    for( int i = 0; i < size; i++ ) array.add( readObject() );
+                    return array;
+                }
+                
+                case DICT: {
+                    PListDict.Builder builder = builders.isEmpty() ? new PListDict.Builder() : builders.pop();
+                    int size = readVarInt();
+                    for( int i = 0; i < size; i++ ) {
+                        String k = strings[ readVarInt() ];
+                        builder.put( k, readObject() );
+                    }
+                    
+                    PListDict dict = builder.build( keySets );
+                    builder.clear();
+                    builders.push( builder );
+                    return dict;
+                }
+                
+                default: throw new IOException( "Invalid tag in plist cache snapshot: " + tag );
+            }
+        }
+        
+        private String readUTF() throws IOException {
+            int length = in.getShort() & 0xffff;
+            byte[] utf = new byte[ length ];
+            in.get( utf );
+            return new String( utf, UTF8 );
+        }
+        
+        //decode utf-8 bytes into chars, returning the number of chars
+        private int decodeUTF8( int length, char[] chars ) throws IOException {
+            int count = 0;
+            int end   = in.position() + length;
+            
+            while( in.position() < end ) {
+                int b = in.get() & 0xff;
+                
+                if( b < 0x80 ) {
+                    chars[ count++ ] = (char) b;
+                    continue;
+                }
+                
+                //fall back for anything that is not plain ascii
+                in.position( in.position() - 1 );
+                byte[] rest = new byte[ end - in.position() ];
+                in.get( rest );
+                
+                String s = new String( rest, UTF8 );
+                if( count + s.length() > chars.length ) throw new EOFException( "String too long" );
+                s.getChars( 0, s.length(), chars, count );
+                return count + s.length();
+            }
+            
+            return count;
+        }
+        
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.get();
+                value |= ( b & 0x7f ) << shift;
+                shift += 7;
+            } while( ( b & 0x80 ) != 0 );
+            
+            return value;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.epistem.graffle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.epistem.util.Base64;
+
+/**
+ * A handle on a plist data element that is only decoded when it is needed.
+ * Produced instead of a byte[] when a document is parsed with lazy data.
+ *
+ * @author nickmain
+ */
+public abstract class PListData {
+
+    private byte[] bytes;
+    
+    /**
+     * The length of the decoded data
+     */
+    public abstract int length();
+    
+    /**
+     * Get the decoded data. It is decoded on the first call and then kept,
+     * so the returned array must not be modified.
+     */
+    public synchronized byte[] bytes() {
+        if( bytes == null ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream( length() );
+            try {
+                decode( out );
+            }
+            catch( IOException ex ) {
+                throw new RuntimeException( ex );
+            }
+            
+            bytes = out.toByteArray();
+            release();
+        }
+        
+        return bytes;
+    }
+    
+    /**
+     * Write the decoded data to a stream. If the data has not been decoded
+     * yet it is streamed without being held in memory.
+     */
+    public void writeTo( OutputStream out ) throws IOException {
+        byte[] decoded;
+        synchronized( this ) {
+            decoded = bytes;
+        }
+        
+        if( decoded != null ) out.write( decoded );
+        else decode( out );
+    }
+    
+    /**
+     * Decode the data into a stream
+     */
+    protected abstract void decode( OutputStream out ) throws IOException;
+    
+    /**
+     * Release the encoded form once the data has been decoded
+     */
+    protected abstract void release();
+    
+    /**
+     * Data held as base64 chars packed into ascii bytes
+     */
+    static final class Base64Data extends PListData {
+        private byte[] ascii;
+        private final int length;
+        
+        /**
+         * @param ascii the base64 chars, without whitespace
+         */
+        Base64Data( byte[] ascii ) {
+            this.ascii  = ascii;
+            this.length = Base64.decodedLength( ascii, 0, ascii.length );
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        protected void decode( OutputStream out ) throws IOException {
+            byte[] chars;
+            synchronized( this ) {
+                chars = ascii;
+            }
+            
+            if( chars == null ) out.write( bytes() );
+            else Base64.decode( chars, 0, chars.length, out );
+        }
+
+        @Override
+        protected void release() {
+            ascii = null;
+        }
+    }
+    
+    /**
+     * Data held as a range of a (typically memory-mapped) buffer
+     */
+    static final class BufferData extends PListData {
+        private ByteBuffer buffer;
+        private final int start;
+        private final int length;
+        
+        BufferData( ByteBuffer buffer, int start, int length ) {
+            this.buffer = buffer;
+            this.start  = start;
+            this.length = length;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        protected void decode( OutputStream out ) throws IOException {
+            ByteBuffer source;
+            synchronized( this ) {
+                if( buffer == null ) {
+                    out.write( bytes() );
+                    return;
+                }
+                
+                source = buffer.duplicate();
+            }
+            
+            source.position( start );
+            
+            byte[] chunk = new byte[ Math.min( length, OGUtils.BUFFER_SIZE ) ];
+            int remaining = length;
+            while( remaining > 0 ) {
+                int count = Math.min( remaining, chunk.length );
+                source.get( chunk, 0, count );
+                out.write( chunk, 0, count );
+                remaining -= count;
+            }
+        }
+
+        @Override
+        protected void release() {
+            buffer = null;
+        }
+    }
+}
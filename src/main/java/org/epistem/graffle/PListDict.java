@@ -0,0 +1,222 @@
+package org.epistem.graffle;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable plist dictionary held as a sorted key array and a parallel
+ * value array. Dictionaries with the same set of keys share one key array.
+ *
+ * @author nickmain
+ */
+final class PListDict extends AbstractMap<String, Object> {
+
+    private static final String[] NO_KEYS   = new String[0];
+    private static final Object[] NO_VALUES = new Object[0];
+    
+    private final String[] keys;
+    private final Object[] values;
+    
+    private PListDict( String[] keys, Object[] values ) {
+        this.keys   = keys;
+        this.values = values;
+    }
+    
+    private int indexOf( Object key ) {
+        if( !( key instanceof String ) ) return -1;
+        String k = (String) key;
+        
+        int low  = 0;
+        int high = keys.length - 1;
+        while( low <= high ) {
+            int mid = ( low + high ) >>> 1;
+            String midKey = keys[mid];
+            if( midKey == k ) return mid;
+            
+            int cmp = midKey.compareTo( k );
+            if     ( cmp < 0 ) low  = mid + 1;
+            else if( cmp > 0 ) high = mid - 1;
+            else return mid;
+        }
+        
+        return -1;
+    }
+    
+    @Override
+    public Object get( Object key ) {
+        int index = indexOf( key );
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public boolean containsKey( Object key ) {
+        return indexOf( key ) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+    
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String,Object>>() {
+            
+            @Override
+            public int size() {
+                return keys.length;
+            }
+            
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String,Object>>() {
+                    private int index = 0;
+                    
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    public Map.Entry<String, Object> next() {
+                        if( index >= keys.length ) throw new NoSuchElementException();
+                        Map.Entry<String,Object> entry = 
+                            new AbstractMap.SimpleImmutableEntry<String, Object>( keys[index], values[index] );
+                        index++;
+                        return entry;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+    
+    /**
+     * Accumulates the entries of a dictionary as it is parsed
+     */
+    static final class Builder {
+        private String[] keys   = new String[ 8 ];
+        private Object[] values = new Object[ 8 ];
+        private int size;
+        
+        /**
+         * Add an entry - a repeated key replaces the earlier value
+         */
+        void put( String key, Object value ) {
+            if( size == keys.length ) {
+                keys   = Arrays.copyOf( keys,   size * 2 );
+                values = Arrays.copyOf( values, size * 2 );
+            }
+            
+            keys  [size] = key;
+            values[size] = value;
+            size++;
+        }
+        
+        /**
+         * Remove all the entries so that the builder can be reused
+         */
+        void clear() {
+            Arrays.fill( values, 0, size, null );
+            Arrays.fill( keys, 0, size, null );
+            size = 0;
+        }
+        
+        /**
+         * Build the dictionary, sharing the key array from the given table
+         */
+        PListDict build( KeySets keySets ) {
+            if( size == 0 ) return new PListDict( NO_KEYS, NO_VALUES );
+            
+            //insertion sort - plist keys are normally already in order
+            int count = 0;
+            for( int i = 0; i < size; i++ ) {
+                String key   = keys[i];
+                Object value = values[i];
+                
+                int j = count;
+                while( j > 0 && keys[j-1].compareTo( key ) > 0 ) j--;
+                
+                if( j > 0 && keys[j-1].equals( key ) ) {
+                    values[j-1] = value;
+                    continue;
+                }
+                
+                System.arraycopy( keys,   j, keys,   j + 1, count - j );
+                System.arraycopy( values, j, values, j + 1, count - j );
+                keys  [j] = key;
+                values[j] = value;
+                count++;
+            }
+            
+            return new PListDict( keySets.canonical( keys, count ), 
+                                  Arrays.copyOf( values, count ) );
+        }
+    }
+    
+    /**
+     * A table of the distinct key arrays of a parse
+     */
+    static final class KeySets {
+        private String[][] table = new String[ 64 ][];
+        private int count;
+        
+        /**
+         * Get the shared key array with the given contents
+         * 
+         * @param keys the sorted keys
+         * @param length the number of keys
+         */
+        String[] canonical( String[] keys, int length ) {
+            int hash = 1;
+            for( int i = 0; i < length; i++ ) {
+                hash = 31 * hash + keys[i].hashCode();
+            }
+            
+            int mask  = table.length - 1;
+            int index = ( hash ^ ( hash >>> 16 ) ) & mask;
+            
+            for( String[] ks = table[index]; ks != null; ks = table[index] ) {
+                if( matches( ks, keys, length ) ) return ks;
+                index = ( index + 1 ) & mask;
+            }
+            
+            String[] ks = Arrays.copyOf( keys, length );
+            table[index] = ks;
+            if( ++count * 2 > table.length ) grow();
+            
+            return ks;
+        }
+        
+        private static boolean matches( String[] ks, String[] keys, int length ) {
+            if( ks.length != length ) return false;
+            
+            for( int i = 0; i < length; i++ ) {
+                if( ! ks[i].equals( keys[i] ) ) return false;
+            }
+            
+            return true;
+        }
+        
+        private void grow() {
+            String[][] old = table;
+            table = new String[ old.length * 2 ][];
+            int mask = table.length - 1;
+            
+            for( String[] ks : old ) {
+                if( ks == null ) continue;
+                
+                int hash = Arrays.hashCode( ks );
+                int index = ( hash ^ ( hash >>> 16 ) ) & mask;
+                while( table[index] != null ) index = ( index + 1 ) & mask;
+                table[index] = ks;
+            }
+        }
+    }
+}
@@ -1,19 +1,33 @@
 package org.epistem.graffle;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.epistem.util.Base64;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
@@ -30,149 +44,772 @@ public class PListParser extends DefaultHandler {
      */
     public Object plistObject;
 
-    private StringBuilder text = new StringBuilder();
-    private Map<String,Object> dict;
-    private List<Object> array;
-    private String key;
-    private LinkedList<Object> stack = new LinkedList<Object>();
+    private char[] text = new char[ 256 ];
+    private int textLength;
+    
+    private boolean inData;   //whether within a data element
+    private byte[] data = new byte[ 256 ]; //the base64 chars of a data element
+    private int dataLength;
+    
+    private final ParseOptions options;
+    
+    private final PListProjection rootProjection;
+    private boolean skipNext; //whether the next value is to be skipped
+    private int skipDepth;    //element depth within a skipped value
+    
+    private final StringTable strings = new StringTable();
+    private final PListDict.KeySets keySets = new PListDict.KeySets();
+    
+    private Frame frame; //the current dict or array, null at the top level
+    private final ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+    private final ArrayDeque<Frame> spareFrames = new ArrayDeque<Frame>();
+    
+    private ValueListener listener; //null unless streaming
+    private final List<String> path = new ArrayList<String>(); //the names of the open frames
 
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat( "yyyy'-'MM'-'dd'T'HH':'mm':'ss'Z'" );
+    /**
+     * The keys whose array values are deferred when parsing lazily
+     */
+    static final Set<String> DEFERRED_KEYS = Collections.unmodifiableSet( 
+            new HashSet<String>( Arrays.asList( "Sheets", "GraphicsList" ) ) );
     
-    //push current item onto the stack
-    private void push() {
-        if( dict != null ) {
-            stack.addFirst( dict );
-            stack.addFirst( key );
-        }
+    //the plist element tags
+    static final int PLIST   = 0;
+    static final int DICT    = 1;
+    static final int ARRAY   = 2;
+    static final int KEY     = 3;
+    static final int STRING  = 4;
+    static final int INTEGER = 5;
+    static final int REAL    = 6;
+    static final int DATE    = 7;
+    static final int DATA    = 8;
+    static final int TRUE    = 9;
+    static final int FALSE   = 10;
+    static final int LAZY    = 11; //placeholder element standing in for a deferred array
+    static final int UNKNOWN = -1;
+    
+    /**
+     * The element names of the tags, indexed by tag
+     */
+    static final String[] TAG_NAMES = {
+        "plist", "dict", "array", "key", "string", "integer", "real", "date", 
+        "data", "true", "false", "lazy"
+    };
+    
+    private static final Map<String,Integer> TAGS = new HashMap<String, Integer>();
+    static {
+        for( int i = 0; i < TAG_NAMES.length; i++ ) TAGS.put( TAG_NAMES[i], i );
+    }
+    
+    static final byte[] LAZY_TAG = { '<', 'l', 'a', 'z', 'y', '/', '>' };
+    
+    //the deferred arrays, in document order
+    private final LinkedList<List<Object>> deferred = new LinkedList<List<Object>>();
+
+    //the lengths and positions within a date of the form yyyy-MM-ddTHH:mm:ssZ
+    private static final int DATE_LENGTH = 20;
+    private static final String DATE_PATTERN = "dddd-dd-ddTdd:dd:ddZ";
+    
+    //boxed whole numbers, shared between reals
+    private static final Double[] WHOLE_REALS = new Double[ 256 ];
+    static {
+        for( int i = 0; i < WHOLE_REALS.length; i++ ) WHOLE_REALS[i] = Double.valueOf( i );
+    }
+    
+    /**
+     * Receives each value as it is completed, when streaming
+     */
+    interface ValueListener {
         
-        else if( array != null ) {
-            stack.addFirst( array );
-        }
+        /**
+         * @param path the names of the enclosing dicts and arrays, outermost
+         *             first - the key of each in its parent dict, or null for
+         *             array elements and the top level object
+         * @param key the key of the value, null for array elements and the
+         *            top level object
+         * @param value the completed value
+         * @return whether to retain the value in its enclosing dict or array
+         */
+        boolean completed( List<String> path, String key, Object value ) throws Exception;
+    }
+    
+    /**
+     * A dict or array that is being parsed
+     */
+    private static final class Frame {
+        final PListDict.Builder dict = new PListDict.Builder();
+        List<Object> array;
+        boolean isDict;
+        String key;
         
-        key   = null;
-        dict  = null;
-        array = null;
+        PListProjection projection;      //applies to the keys or elements
+        PListProjection valueProjection; //applies to the value of the key
     }
     
-    //pop item from the stack
-    @SuppressWarnings("unchecked")
-    private void pop() {
-        key   = null;
-        dict  = null;
-        array = null;
+    //start a new dict or array, pushing the current one onto the stack
+    private void push( boolean isDict ) {
+        PListProjection projection = valueProjection();
+        if( listener != null ) path.add( frame != null && frame.isDict ? frame.key : null );
+        if( frame != null ) stack.push( frame );
         
-        if( stack.isEmpty() ) return;
+        frame = spareFrames.isEmpty() ? new Frame() : spareFrames.pop();
+        frame.isDict     = isDict;
+        frame.projection = projection;
+        if( ! isDict ) frame.array = new ArrayList<Object>();
+    }
+    
+    //finish the current dict or array and return to the enclosing one
+    private void pop() {
+        frame.array = null;
+        frame.key   = null;
+        frame.projection      = null;
+        frame.valueProjection = null;
+        frame.dict.clear();
+        spareFrames.push( frame );
         
-        try {
-            Object obj = stack.removeFirst();
-            
-            if( obj instanceof String ) {
-                key  = (String) obj;
-                dict = (Map<String,Object>) stack.removeFirst();
-            }
-            else {
-                array = (List<Object>) obj;
-            }
-        } catch( ClassCastException cce ) {
-            System.err.println( cce );
-        }
+        frame = stack.poll();
+        if( listener != null ) path.remove( path.size() - 1 );
+    }
+    
+    //the projection of the value that is starting
+    private PListProjection valueProjection() {
+        if( frame == null ) return rootProjection;
+        if( frame.isDict  ) return frame.valueProjection;
+        return frame.projection;
+    }
+    
+    /**
+     * The plist DTD is never needed (the parser is not validating) so avoid
+     * fetching it from apple.com for every document
+     */
+    @Override
+    public InputSource resolveEntity( String publicId, String systemId ) {
+        return new InputSource( new StringReader( "" ) );
+    }
+    
+    /**
+     * Create a parser with default options
+     */
+    public PListParser() {
+        this( new ParseOptions() );
+    }
+    
+    /**
+     * @param options the parse options
+     */
+    public PListParser( ParseOptions options ) {
+        this( options, options.getProjection() );
+    }
+    
+    /**
+     * @param options the parse options
+     * @param projection the projection of the top level object
+     */
+    PListParser( ParseOptions options, PListProjection projection ) {
+        this.options = options;
+        this.rootProjection = projection != null ? projection.freeze() : PListProjection.ALL;
     }
     
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
-        text.append( ch, start, length );
+        text( ch, start, length );
     }
-
+    
     @Override
     public void endElement(String uri, String localName, String name)
             throws SAXException {
+        endTag( tag( name ) );
+    }
+    
+    @Override
+    public void startElement( String uri, String localName, String name, Attributes attributes ) 
+        throws SAXException {
+        startTag( tag( name ) );
+    }
+    
+    //the tag of an element name
+    private static int tag( String name ) {
+        Integer tag = TAGS.get( name );
+        return tag != null ? tag : UNKNOWN;
+    }
+    
+    /**
+     * Handle the text content of an element
+     */
+    void text( char[] ch, int start, int length ) {
+        if( skipDepth > 0 ) return;
         
-        if( name.equals( "array" ) ) {
-            plistObject = array;
-            pop();
+        if( inData ) {
+            base64( ch, start, length );
+            return;
         }
-        else if( name.equals( "data" ) ) {
-            try{
-                plistObject = Base64.decode( text.toString().trim() );
-            } catch( Exception ex ) {
-                throw new SAXException( "invalide base64 value" );
-            }
+        
+        if( textLength + length > text.length ) {
+            text = Arrays.copyOf( text, Math.max( text.length * 2, textLength + length ) );
         }
-        else if( name.equals( "date" ) ) {
-            try {
-                plistObject = dateFormat.parse( text.toString().trim() );
-            } catch( ParseException ex ) {
-                throw new SAXException( ex );
+        
+        System.arraycopy( ch, start, text, textLength, length );
+        textLength += length;
+    }
+
+    /**
+     * Handle the end of an element
+     */
+    void endTag( int tag ) throws SAXException {
+        
+        if( skipDepth > 0 ) {
+            //a skipped deferred array is still consumed 
+            if( tag == LAZY ) deferred.removeFirst();
+            
+            if( --skipDepth == 0 ) frame.key = null;
+            return;
+        }
+        
+        switch( tag ) {
+            case ARRAY:
+                plistObject = frame.array;
+                pop();
+                break;
+            
+            case DATA:
+                inData = false;
+            
+                if( options.isLazyData() ) {
+                    plistObject = new PListData.Base64Data( Arrays.copyOf( data, dataLength ) );
+                }
+                else {
+                    try{
+                        ByteArrayOutputStream out = new ByteArrayOutputStream( Base64.decodedLength( data, 0, dataLength ) );
+                        Base64.decode( data, 0, dataLength, out );
+                        plistObject = out.toByteArray();
+                    } catch( Exception ex ) {
+                        throw new SAXException( "invalide base64 value" );
+                    }
+                }
+                break;
+            
+            case DATE:
+                plistObject = parseDate();
+                break;
+            
+            case DICT:
+                plistObject = frame.dict.build( keySets );
+                pop();
+                break;
+            
+            case REAL:
+                plistObject = parseReal();
+                break;
+            
+            case INTEGER:
+                plistObject = parseInteger();
+                break;
+            
+            case STRING:
+                plistObject = strings.intern( text, 0, textLength );
+                break;
+            
+            case KEY:
+                int keyStart = trimStart();
+                frame.key = strings.intern( text, keyStart, trimEnd( keyStart ) );
+            
+                frame.valueProjection = frame.projection.child( frame.key );
+                if( frame.valueProjection == null ) skipNext = true;
+                return;
+            
+            case TRUE:
+                plistObject = Boolean.TRUE;
+                break;
+            
+            case FALSE:
+                plistObject = Boolean.FALSE;
+                break;
+            
+            case LAZY:
+                List<Object> array = deferred.removeFirst();
+                if( array instanceof LazyArray ) ((LazyArray) array).project( valueProjection() );
+                plistObject = array;
+                break;
+            
+            default:
+                return; //the plist element
+        }
+
+        if( listener != null && ! notifyListener() ) return;
+        
+        if( frame == null ) return;
+        
+        //put the object in the current map
+        if( frame.isDict ) {
+            if( frame.key != null ) {
+                frame.dict.put( frame.key, plistObject );
+                frame.key = null;
             }
         }
-        else if( name.equals( "dict" ) ) {
-            plistObject = dict;
-            pop();
+        
+        //put the object in the current array
+        else {
+            frame.array.add( plistObject );
         }
-        else if( name.equals( "real" ) ) {
-            plistObject = new Double( text.toString().trim() );
+    }
+
+    //pass the completed object to the listener, returning whether to retain it
+    private boolean notifyListener() throws SAXException {
+        String key = frame != null && frame.isDict ? frame.key : null;
+        
+        try {
+            if( listener.completed( path, key, plistObject ) ) return true;
+        } catch( Exception ex ) {
+            throw new SAXException( ex );
         }
-        else if( name.equals( "integer" ) ) {
-            plistObject = new Integer( text.toString().trim() );
+        
+        if( key != null ) frame.key = null;
+        return false;
+    }
+    
+    //collect base64 chars as ascii bytes, dropping whitespace
+    private void base64( char[] ch, int start, int length ) {
+        if( dataLength + length > data.length ) {
+            data = Arrays.copyOf( data, Math.max( data.length * 2, dataLength + length ) );
         }
-        else if( name.equals( "string" ) ) {
-            plistObject = text.toString();
+        
+        int end = start + length;
+        for( int i = start; i < end; i++ ) {
+            char c = ch[i];
+            if( c <= ' ' ) continue;
+            data[ dataLength++ ] = c < 128 ? (byte) c : (byte) '?';
         }
-        else if( name.equals( "key" ) ) {
-            key = text.toString().trim();
-            return;
+    }
+    
+    private int trimStart() {
+        int start = 0;
+        while( start < textLength && text[start] <= ' ' ) start++;
+        return start;
+    }
+    
+    //the end of the text without trailing whitespace - never before the start
+    private int trimEnd( int start ) {
+        int end = textLength;
+        while( end > start && text[end - 1] <= ' ' ) end--;
+        return end;
+    }
+    
+    //parse the text as an int without creating any strings
+    private Integer parseInteger() {
+        int start = trimStart();
+        int end   = trimEnd( start );
+        
+        boolean negative = start < end && text[start] == '-';
+        int pos = negative ? start + 1 : start;
+        
+        //fall back to the library for anything unusual or too long to be safe
+        if( pos == end || end - pos > 9 ) return Integer.valueOf( new String( text, start, end - start ) );
+        
+        int value = 0;
+        for( ; pos < end; pos++ ) {
+            int digit = text[pos] - '0';
+            if( digit < 0 || digit > 9 ) return Integer.valueOf( new String( text, start, end - start ) );
+            value = value * 10 + digit;
         }
-        else if( name.equals( "true" ) ) {
-            plistObject = Boolean.TRUE;
+        
+        return Integer.valueOf( negative ? -value : value );
+    }
+    
+    //parse the text as a UTC date of the form yyyy-MM-ddTHH:mm:ssZ
+    private Date parseDate() throws SAXException {
+        int start = trimStart();
+        int end   = trimEnd( start );
+        
+        if( end - start != DATE_LENGTH ) throw invalidDate( start, end );
+        for( int i = 0; i < DATE_LENGTH; i++ ) {
+            char c = text[ start + i ];
+            char p = DATE_PATTERN.charAt( i );
+            if( p == 'd' ? ( c < '0' || c > '9' ) : c != p ) throw invalidDate( start, end ); 
+        }
+        
+        int year   = digits( start, 4 );
+        int month  = digits( start + 5, 2 );
+        int day    = digits( start + 8, 2 );
+        int hour   = digits( start + 11, 2 );
+        int minute = digits( start + 14, 2 );
+        int second = digits( start + 17, 2 );
+        if( month < 1 || month > 12 || day < 1 || day > 31 ) throw invalidDate( start, end );
+        
+        //days since 1970-01-01 in the proleptic gregorian calendar
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra  = y - era * 400;
+        int dayOfYear  = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5 + day - 1;
+        int dayOfEra   = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days      = era * 146097L + dayOfEra - 719468;
+        
+        long seconds = days * 86400 + hour * 3600 + minute * 60 + second;
+        return new Date( seconds * 1000 );
+    }
+    
+    private int digits( int start, int count ) {
+        int value = 0;
+        for( int i = start; i < start + count; i++ ) {
+            value = value * 10 + ( text[i] - '0' );
         }
-        else if( name.equals( "false" ) ) {
-            plistObject = Boolean.FALSE;
+        return value;
+    }
+    
+    private SAXException invalidDate( int start, int end ) {
+        return new SAXException( "Invalid date: " + new String( text, start, end - start ) );
+    }
+    
+    //parse the text as a double without creating any strings
+    private Double parseReal() {
+        int start = trimStart();
+        double value = OGUtils.parseDouble( text, start, trimEnd( start ) );
+        
+        //share the small whole numbers, but not negative zero
+        int whole = (int) value;
+        if( whole == value && whole >= 0 && whole < WHOLE_REALS.length && 1 / value > 0 ) {
+            return WHOLE_REALS[ whole ];
         }
+        
+        return Double.valueOf( value );
+    }
 
-        //put the object in the current map
-        if( key != null ) {
-            dict.put( key, plistObject );
-            key = null;
+    /**
+     * Handle the start of an element
+     */
+    void startTag( int tag ) {
+        
+        if( skipDepth > 0 || skipNext ) {
+            skipNext = false;
+            skipDepth++;
+            return;
         }
         
-        //put the object in the current array
-        else if( array != null ) {
-            array.add( plistObject );
+        textLength = 0;
+        
+        switch( tag ) {
+            case ARRAY:
+                push( false );
+                break;
+            
+            case DICT:
+                push( true );
+                break;
+            
+            case DATA:
+                inData     = true;
+                dataLength = 0;
+                break;
         }
     }
 
-    @Override
-    public void startElement( String uri, String localName, String name, Attributes attributes ) 
-        throws SAXException {
+    /**
+     * Parse a PLIST file. Gzip compressed files are decompressed as they are
+     * read.
+     * 
+     * @param file the file to parse - or a package directory containing a
+     *             data.plist file
+     * @return the object contained in the plist - usually a Map or List
+     */
+    public static Object parse( File file ) throws Exception {
+        return parse( file, new ParseOptions() );
+    }
+    
+    /**
+     * Parse a PLIST file. Gzip compressed files are decompressed as they are
+     * read. Binary plists are recognized by their header and are mapped into
+     * memory rather than parsed up front. If the options have a cache then
+     * the parsed plist is taken from, or added to, the cache.
+     * 
+     * @param file the file to parse - or a package directory containing a
+     *             data.plist file
+     * @param options the parse options
+     * @return the object contained in the plist - usually a Map or List
+     */
+    public static Object parse( File file, ParseOptions options ) throws Exception {
+        if( options.getCache() != null ) return options.getCache().load( file );
         
-        text.setLength( 0 );
+        if( file.isDirectory() ) file = new File( file, "data.plist" );
         
-        if( name.equals( "array" ) ) {
-            push();
-            array = new ArrayList<Object>();
+        if( BinaryPListParser.isBinary( OGUtils.readHeader( file, 8 ) ) ) {
+            return BinaryPListParser.parse( OGUtils.map( file ), options );
         }
-        else if( name.equals( "dict" ) ) {
-            push();
-            dict = new HashMap<String, Object>();
+        
+        if( options.isLazy() || ! options.isSAX() ) {
+            byte[] data = OGUtils.readFully( file );
+            return parse( data, 0, data.length, options, options.getProjection() );
+        }
+        
+        InputStream in = OGUtils.openStream( file );
+        try {
+            InputSource source = new InputSource( in );
+            source.setSystemId( file.toURI().toString() );
+            
+            return parse( source, options );
+        }
+        finally {
+            in.close();
         }
     }
-
+    
     /**
-     * Parse a PLIST file.
+     * Parse a PLIST from the given source.
      * 
-     * @param file the file to parse
      * @return the object contained in the plist - usually a Map or List
      */
-    public static Object parse( File file ) throws Exception {
+    public static Object parse( InputSource source ) throws Exception {
+        return parse( source, new PListParser() );
+    }
+    
+    /**
+     * Parse a PLIST from the given source.
+     * 
+     * @return the object contained in the plist - usually a Map or List
+     */
+    public static Object parse( InputSource source, ParseOptions options ) throws Exception {
+        return parse( source, new PListParser( options ) );
+    }
+    
+    /**
+     * Parse a PLIST file, passing each value to the listener as it is
+     * completed. Values that the listener does not retain are dropped as soon
+     * as they are complete. The file is always fully parsed - binary plists 
+     * are decoded and then replayed to the listener.
+     * 
+     * @param file the file to parse - or a package directory containing a
+     *             data.plist file
+     */
+    static void stream( File file, ValueListener listener ) throws Exception {
         if( file.isDirectory() ) file = new File( file, "data.plist" );
         
+        if( BinaryPListParser.isBinary( OGUtils.readHeader( file, 8 ) ) ) {
+            replay( BinaryPListParser.parse( OGUtils.map( file ), new ParseOptions() ), 
+                    new ArrayList<String>(), null, listener );
+            return;
+        }
+        
+        PListParser plist = new PListParser();
+        plist.listener = listener;
+        
+        InputStream in = OGUtils.openStream( file );
+        try {
+            InputSource source = new InputSource( in );
+            source.setSystemId( file.toURI().toString() );
+            
+            parse( source, plist );
+        }
+        catch( SAXException ex ) {
+            //unwrap the listener's own exceptions
+            if( ex.getException() != null ) throw ex.getException();
+            throw ex;
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    //pass an already parsed object and its contents to a listener, as the
+    //parser does - returning the object with only the contents that the 
+    //listener retained, or null if the listener does not retain it
+    @SuppressWarnings("unchecked")
+    private static Object replay( Object obj, List<String> path, String key, 
+                                  ValueListener listener ) throws Exception {
+        if( obj instanceof Map ) {
+            Map<String,Object> kept = new LinkedHashMap<String, Object>();
+            path.add( key );
+            for( Map.Entry<String,Object> entry : ((Map<String,Object>) obj).entrySet() ) {
+                Object value = replay( entry.getValue(), path, entry.getKey(), listener );
+                if( value != null ) kept.put( entry.getKey(), value );
+            }
+            path.remove( path.size() - 1 );
+            obj = kept;
+        }
+        else if( obj instanceof List ) {
+            List<Object> kept = new ArrayList<Object>();
+            path.add( key );
+            for( Object o : (List<Object>) obj ) {
+                Object value = replay( o, path, null, listener );
+                if( value != null ) kept.add( value );
+            }
+            path.remove( path.size() - 1 );
+            obj = kept;
+        }
+        
+        return listener.completed( path, key, obj ) ? obj : null;
+    }
+    
+    /**
+     * Parse a range of the raw bytes of a plist. When parsing lazily the 
+     * arrays of the DEFERRED_KEYS within the range are not parsed but become
+     * lazy lists over their byte ranges. Otherwise, if the options have an
+     * executor, the elements of the Sheets array are parsed in parallel.
+     * 
+     * @param start the start of the range - an xml declaration or element
+     * @param end the end of the range (exclusive)
+     * @param projection the projection of the object in the range
+     * @return the object contained in the range
+     */
+    static Object parse( byte[] data, int start, int end, 
+                         ParseOptions options, PListProjection projection ) throws Exception {
+        return parse( data, start, end, options, projection, true );
+    }
+    
+    /**
+     * @param parallel whether the Sheets may be parsed in parallel
+     */
+    private static Object parse( byte[] data, int start, int end, ParseOptions options, 
+                                 PListProjection projection, boolean parallel ) throws Exception {
+        PListParser plist = new PListParser( options, projection );
+        
+        List<int[]> ranges = options.isLazy() ? 
+                                 PListScanner.findKeyedArrays( data, start, end, DEFERRED_KEYS ) :
+                                 Collections.<int[]>emptyList();
+        for( int[] range : ranges ) {
+            plist.deferred.add( new LazyArray( data, range[0], range[1], options ) );
+        }
+        
+        ParallelArray sheets = null;
+        if( parallel && ! options.isLazy() && options.getExecutor() != null ) {
+            sheets = ParallelArray.sheets( data, start, end, options, plist.rootProjection );
+            if( sheets != null ) {
+                ranges = Collections.singletonList( sheets.range );
+                plist.deferred.add( sheets.list );
+            }
+        }
+        
+        try {
+            if( ! options.isSAX() ) {
+                new PListTokenizer( data, start, end, plist ).tokenize( ranges );
+            }
+            else {
+                parseSegments( data, start, end, ranges, plist );
+            }
+        }
+        catch( Exception ex ) {
+            if( sheets != null ) sheets.cancel();
+            throw ex;
+        }
+        
+        if( sheets != null ) sheets.join();
+        return plist.plistObject;
+    }
+    
+    /**
+     * Parse plist bytes in which lazy elements stand in for arrays that have
+     * been left out. The projection of the options is not applied.
+     * 
+     * @param arrays the arrays for the lazy elements, in document order
+     * @return the object contained in the bytes
+     */
+    static Object parse( byte[] data, ParseOptions options, List<List<Object>> arrays ) throws Exception {
+        PListParser plist = new PListParser( options, null );
+        plist.deferred.addAll( arrays );
+        
+        new PListTokenizer( data, 0, data.length, plist ).tokenize( Collections.<int[]>emptyList() );
+        return plist.plistObject;
+    }
+    
+    //parse the range with SAX, replacing the deferred ranges with lazy elements
+    private static void parseSegments( byte[] data, int start, int end, 
+                                       List<int[]> ranges, PListParser plist ) throws Exception {
+        
+        List<InputStream> segments = new ArrayList<InputStream>();
+        
+        int pos = start;
+        for( int[] range : ranges ) {
+            segments.add( new ByteArrayInputStream( data, pos, range[0] - pos ) );
+            segments.add( new ByteArrayInputStream( LAZY_TAG ) );
+            pos = range[1];
+        }        
+        segments.add( new ByteArrayInputStream( data, pos, end - pos ) );
+        
+        InputStream in = new SequenceInputStream( Collections.enumeration( segments ) );
+        parse( new InputSource( in ), plist );
+    }
+    
+    /**
+     * An array whose elements are parsed in parallel
+     */
+    private static final class ParallelArray {
+        final int[] range;
+        final List<Object> list = new ArrayList<Object>();
+        final List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>();
+        
+        /**
+         * Start parsing the elements of the document's Sheets array
+         * 
+         * @return null if there are not several sheets to parse
+         */
+        static ParallelArray sheets( byte[] data, int start, int end, 
+                                     ParseOptions options, PListProjection projection ) {
+            PListProjection sheetProjection = projection.child( "Sheets" );
+            if( sheetProjection == null ) return null;
+            
+            int arrayStart = PListScanner.findKeyedArray( data, start, end, "Sheets" );
+            if( arrayStart < 0 ) return null;
+            
+            List<int[]> elements = new ArrayList<int[]>();
+            int arrayEnd = PListScanner.elements( data, arrayStart, end, elements );
+            if( arrayEnd < 0 || elements.size() < 2 ) return null;
+            
+            return new ParallelArray( data, new int[] { arrayStart, arrayEnd }, elements, 
+                                      options, sheetProjection );
+        }
+        
+        private ParallelArray( final byte[] data, int[] range, List<int[]> elements, 
+                               final ParseOptions options, final PListProjection projection ) {
+            this.range = range;
+            
+            for( final int[] element : elements ) {
+                FutureTask<Object> task = new FutureTask<Object>( new Callable<Object>() {
+                    public Object call() throws Exception {
+                        return parse( data, element[0], element[1], options, projection, false );
+                    }
+                });
+                
+                tasks.add( task );
+                options.getExecutor().execute( task );
+            }
+        }
+        
+        /**
+         * Wait for the elements and add them to the list. Elements that the
+         * executor has not started are parsed on the calling thread, so the
+         * caller never waits on tasks queued behind it - even when it is
+         * itself running on the executor. If an element fails then the
+         * elements that have not started are cancelled.
+         */
+        void join() throws Exception {
+            try {
+                for( FutureTask<Object> task : tasks ) {
+                    task.run(); //does nothing if already started
+                    list.add( task.get() );
+                }
+            }
+            catch( ExecutionException ex ) {
+                Throwable cause = ex.getCause();
+                if( cause instanceof Exception ) throw (Exception) cause;
+                throw ex;
+            }
+            finally {
+                cancel();
+            }
+        }
+        
+        /**
+         * Cancel the elements that have not started
+         */
+        void cancel() {
+            for( FutureTask<Object> task : tasks ) task.cancel( false );
+        }
+    }
+    
+    private static Object parse( InputSource source, PListParser plist ) throws Exception {
         SAXParserFactory fact = SAXParserFactory.newInstance();
         fact.setNamespaceAware( false );
         fact.setValidating( false );
         SAXParser parser = fact.newSAXParser();
         
-        PListParser plist = new PListParser();
-        parser.parse( file, plist );
+        parser.parse( source, plist );
         
         return plist.plistObject;
     }
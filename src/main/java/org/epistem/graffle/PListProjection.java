@@ -0,0 +1,168 @@
+package org.epistem.graffle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A whitelist of key paths to be materialized when parsing a plist. Values
+ * of other keys are skipped without building any objects. Arrays are
+ * transparent - the projection of an array value applies to each of its
+ * elements.
+ *
+ * A projection is frozen once it is given to a parse, after which it cannot
+ * be changed - so that it can be shared by concurrent parses.
+ *
+ * @author nickmain
+ */
+public final class PListProjection {
+
+    /**
+     * Projection that includes everything
+     */
+    public static final PListProjection ALL = new PListProjection( true ).freeze();
+    
+    /**
+     * Projection of the keys that are read by the OmniGraffleDoc, OGSheet,
+     * OGLayer and OGGraphic accessors (including the images). This is
+     * frozen - use node() on a new projection to build a variation.
+     */
+    public static final PListProjection MODEL = new PListProjection();
+    static {
+        PListProjection graphic = new PListProjection();
+        graphic.include( "Class" );
+        graphic.include( "ID" );
+        graphic.include( "Bounds" );
+        graphic.include( "Points" );
+        graphic.include( "Head/ID" );
+        graphic.include( "Tail/ID" );
+        graphic.include( "Line/ID" );
+        graphic.include( "Line/Position" );
+        graphic.include( "Text/Text" );
+        graphic.include( "Notes" );
+        graphic.include( "UserInfo" );
+        graphic.include( "Style/stroke/Pattern" );
+        graphic.include( "Style/stroke/HeadArrow" );
+        graphic.include( "Style/stroke/TailArrow" );
+        graphic.include( "Layer" );
+        graphic.include( "Shape" );
+        graphic.include( "ImageID" );
+        graphic.include( "isSubgraph" );
+        graphic.include( "Graphics", graphic );
+        
+        PListProjection sheet = new PListProjection();
+        for( PListProjection p : new PListProjection[] { sheet, MODEL } ) {
+            p.include( "SheetTitle" );
+            p.include( "UniqueID" );
+            p.include( "Layers/Name" );
+            p.include( "Layers/View" );
+            p.include( "BackgroundGraphic/Notes" );
+            p.include( "BackgroundGraphic/UserInfo" );
+            p.include( "GraphicsList", graphic );
+        }
+        
+        MODEL.include( "CreationDate" );
+        MODEL.include( "Creator" );
+        MODEL.include( "ModificationDate" );
+        MODEL.include( "Modifier" );
+        MODEL.include( "UserInfo" );
+        MODEL.include( "ImageList" );
+        MODEL.include( "Images" );
+        MODEL.include( "Sheets", sheet );
+        MODEL.freeze();
+    }
+    
+    private final boolean all;
+    private final Map<String, PListProjection> children = new HashMap<String, PListProjection>();
+    private volatile boolean frozen;
+    
+    private PListProjection( boolean all ) {
+        this.all = all;
+    }
+    
+    /**
+     * Create a projection that includes nothing until paths are added
+     */
+    public PListProjection() {
+        this( false );
+    }
+    
+    /**
+     * Include the whole value at a key path
+     * 
+     * @param path keys separated by "/"
+     */
+    public void include( String path ) {
+        int slash = path.lastIndexOf( '/' );
+        if( slash < 0 ) include( path, ALL );
+        else node( path.substring( 0, slash ) ).include( path.substring( slash + 1 ), ALL );
+    }
+    
+    /**
+     * Include a key and project its value with the given projection, which
+     * may be this projection or an ancestor of it for recursive structures
+     */
+    public void include( String key, PListProjection projection ) {
+        if( all ) throw new IllegalStateException( "Cannot restrict the ALL projection" );
+        if( frozen ) throw new IllegalStateException( "Cannot change a frozen projection" );
+        children.put( key, projection );
+    }
+    
+    /**
+     * Prevent any further changes to this projection and those it includes
+     * 
+     * @return this projection
+     */
+    public PListProjection freeze() {
+        if( ! frozen ) {
+            frozen = true;
+            for( PListProjection child : children.values() ) child.freeze();
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Whether this projection can no longer be changed
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    /**
+     * Get the projection of the value at a key path, creating it if it does
+     * not exist yet (which is not possible once frozen)
+     * 
+     * @param path keys separated by "/"
+     */
+    public PListProjection node( String path ) {
+        PListProjection node = this;
+        
+        for( String key : path.split( "/" ) ) {
+            PListProjection child = node.children.get( key );
+            if( child == null ) {
+                child = new PListProjection();
+                node.include( key, child );
+            }
+            node = child;
+        }
+        
+        return node;
+    }
+    
+    /**
+     * Whether this projection includes everything
+     */
+    public boolean isAll() {
+        return all;
+    }
+    
+    /**
+     * Get the projection of the value of a key
+     * 
+     * @return null if the key is not included
+     */
+    public PListProjection child( String key ) {
+        if( all ) return this;
+        return children.get( key );
+    }
+}
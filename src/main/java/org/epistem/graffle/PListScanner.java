@@ -0,0 +1,284 @@
+package org.epistem.graffle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Scans the raw bytes of an xml plist for the structure of its arrays
+ * without parsing their contents.
+ *
+ * @author nickmain
+ */
+final class PListScanner {
+
+    private static final byte[] KEY_START   = bytes( "<key>" );
+    private static final byte[] KEY_END     = bytes( "</key>" );
+    private static final byte[] ARRAY_START = bytes( "<array>" );
+    private static final byte[] ARRAY_END   = bytes( "</array>" );
+    private static final byte[] COMMENT     = bytes( "<!--" );
+    private static final byte[] CDATA       = bytes( "<![CDATA[" );
+    private static final byte[] TAG_END     = bytes( ">" );
+    
+    private PListScanner() {}
+    
+    /**
+     * Find the arrays that are the values of the given keys. Arrays nested
+     * within a found array are not reported.
+     * 
+     * @param start the start of the range to scan
+     * @param end the end (exclusive) of the range to scan
+     * @return the ranges as {start,end} - each covering the array element
+     *         from its start tag to the end of its end tag
+     */
+    static List<int[]> findKeyedArrays( byte[] data, int start, int end, Set<String> keys ) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        
+        int pos = start;
+        while( pos < end ) {
+            if( data[pos] != '<' ) { pos++; continue; }
+            
+            if( matches( data, pos, end, KEY_START ) ) {
+                int keyStart = pos + KEY_START.length;
+                int keyEnd   = indexOf( data, keyStart, end, KEY_END );
+                if( keyEnd < 0 ) break;
+                
+                pos = keyEnd + KEY_END.length;
+                
+                String key = ascii( data, keyStart, keyEnd );
+                if( ! keys.contains( key ) ) continue;
+                
+                int valueStart = skipWhitespace( data, pos, end );
+                if( ! matches( data, valueStart, end, ARRAY_START ) ) continue;
+                
+                int valueEnd = arrayEnd( data, valueStart, end );
+                if( valueEnd < 0 ) break;
+                
+                ranges.add( new int[] { valueStart, valueEnd } );
+                pos = valueEnd;
+            }
+            else {
+                pos = skipMarkup( data, pos, end );
+            }
+        }
+        
+        return ranges;
+    }
+    
+    /**
+     * Find the end of the array that starts at the given position
+     * 
+     * @param start the position of the "&lt;array&gt;" tag
+     * @return the position after the matching end tag, -1 if not found
+     */
+    static int arrayEnd( byte[] data, int start, int end ) {
+        int depth = 0;
+        int pos   = start;
+        
+        while( pos < end ) {
+            if( data[pos] != '<' ) { pos++; continue; }
+            
+            if( matches( data, pos, end, ARRAY_START ) ) {
+                depth++;
+                pos += ARRAY_START.length;
+            }
+            else if( matches( data, pos, end, ARRAY_END ) ) {
+                depth--;
+                pos += ARRAY_END.length;
+                if( depth == 0 ) return pos;
+            }
+            else {
+                pos = skipMarkup( data, pos, end );
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Find the array that is the value of the given key of the root dict.
+     * Only the direct children of the root dict are looked at, so the same
+     * key in a nested dict is never found.
+     * 
+     * @return the position of the "&lt;array&gt;" tag, -1 if not found
+     */
+    static int findKeyedArray( byte[] data, int start, int end, String key ) {
+        int root = rootElement( data, start, end );
+        if( root < 0 || ! isElement( data, root, end, "dict" ) ) return -1;
+        
+        List<int[]> entries = new ArrayList<int[]>();
+        if( elements( data, root, end, entries ) < 0 ) return -1;
+        
+        for( int i = 0; i + 1 < entries.size(); i += 2 ) {
+            int[] value = entries.get( i + 1 );
+            if( key.equals( text( data, entries.get( i )[0], entries.get( i )[1] ) )
+             && isElement( data, value[0], value[1], "array" ) ) {
+                return value[0];
+            }
+        }
+        
+        return -1;
+    }
+    
+    //the position of the top level element - within the plist element, if
+    //there is one - skipping the xml declaration, doctype and comments
+    private static int rootElement( byte[] data, int start, int end ) {
+        int pos = start;
+        
+        int plist = indexOf( data, start, end, bytes( "<plist" ) );
+        if( plist >= 0 ) {
+            pos = indexOf( data, plist, end, TAG_END );
+            if( pos < 0 ) return -1;
+            pos++;
+        }
+        
+        while( true ) {
+            pos = skipWhitespace( data, pos, end );
+            if( pos >= end || data[pos] != '<' ) return -1;
+            if( pos + 1 < end && data[pos + 1] != '?' && data[pos + 1] != '!' ) return pos;
+            
+            int next = skipMarkup( data, pos, end );
+            if( next == pos + 1 ) next = indexOf( data, pos, end, TAG_END ) + 1;
+            if( next <= 0 ) return -1;
+            pos = next;
+        }
+    }
+    
+    /**
+     * Find the child elements of the array or dict that starts at the given
+     * position. The children of a dict alternate between keys and values.
+     * 
+     * @param start the position of the start tag of the array or dict
+     * @param ranges receives the ranges as {start,end} - each covering an 
+     *               element from its start tag to the end of its end tag
+     * @return the position after the end tag of the array or dict, -1 if not
+     *         found
+     */
+    static int elements( byte[] data, int start, int end, List<int[]> ranges ) {
+        int startTagEnd = indexOf( data, start, end, TAG_END );
+        if( startTagEnd < 0 ) return -1;
+        if( data[startTagEnd - 1] == '/' ) return startTagEnd + 1; //empty
+        
+        int depth        = 0;
+        int elementStart = -1;
+        int pos          = startTagEnd + 1;
+        
+        while( pos < end ) {
+            if( data[pos] != '<' ) { pos++; continue; }
+            
+            int next = skipMarkup( data, pos, end );
+            if( next > pos + 1 ) { pos = next; continue; } //comment or cdata
+            
+            int close = indexOf( data, pos, end, TAG_END );
+            if( close < 0 || pos + 1 >= end ) break;
+            
+            byte b = data[pos + 1];
+            if( b == '/' ) {
+                if( depth == 0 ) return close + 1; //the end of the array
+                
+                if( --depth == 0 ) ranges.add( new int[] { elementStart, close + 1 } );
+            }
+            else if( b != '?' && b != '!' ) {
+                if( depth == 0 ) elementStart = pos;
+                
+                if( data[close - 1] == '/' ) {
+                    if( depth == 0 ) ranges.add( new int[] { elementStart, close + 1 } );
+                }
+                else {
+                    depth++;
+                }
+            }
+            
+            pos = close + 1;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Get the text of a simple element such as a key or integer, without 
+     * decoding any entities
+     * 
+     * @param start the start of the element
+     * @param end the end of the element (exclusive)
+     */
+    static String text( byte[] data, int start, int end ) {
+        int textStart = indexOf( data, start, end, TAG_END ) + 1;
+        int textEnd   = end - 1;
+        while( textEnd > textStart && data[textEnd] != '<' ) textEnd--;
+        
+        if( textStart <= 0 || textEnd < textStart ) return "";
+        return ascii( data, textStart, textEnd ).trim();
+    }
+    
+    /**
+     * Whether the element at the given position has the given name
+     */
+    static boolean isElement( byte[] data, int pos, int end, String name ) {
+        int nameEnd = pos + 1 + name.length();
+        if( nameEnd >= end || data[pos] != '<' ) return false;
+        
+        for( int i = 0; i < name.length(); i++ ) {
+            if( data[ pos + 1 + i ] != name.charAt( i ) ) return false;
+        }
+        
+        byte b = data[nameEnd];
+        return b == '>' || b == '/' || b == ' ';
+    }
+    
+    //skip a comment or cdata section, or just the "<" of any other tag
+    private static int skipMarkup( byte[] data, int pos, int end ) {
+        if( matches( data, pos, end, COMMENT ) ) {
+            int close = indexOf( data, pos + COMMENT.length, end, bytes( "-->" ) );
+            return close < 0 ? end : close + 3;
+        }
+        
+        if( matches( data, pos, end, CDATA ) ) {
+            int close = indexOf( data, pos + CDATA.length, end, bytes( "]]>" ) );
+            return close < 0 ? end : close + 3;
+        }
+        
+        return pos + 1;
+    }
+    
+    private static int skipWhitespace( byte[] data, int pos, int end ) {
+        while( pos < end ) {
+            byte b = data[pos];
+            if( b != ' ' && b != '\t' && b != '\n' && b != '\r' ) break;
+            pos++;
+        }
+        return pos;
+    }
+    
+    static boolean matches( byte[] data, int pos, int end, byte[] pattern ) {
+        if( pos + pattern.length > end ) return false;
+        
+        for( int i = 0; i < pattern.length; i++ ) {
+            if( data[ pos + i ] != pattern[i] ) return false;
+        }
+        
+        return true;
+    }
+    
+    static int indexOf( byte[] data, int pos, int end, byte[] pattern ) {
+        int last = end - pattern.length;
+        for( int i = pos; i <= last; i++ ) {
+            if( data[i] == pattern[0] && matches( data, i, end, pattern ) ) return i;
+        }
+        return -1;
+    }
+    
+    private static String ascii( byte[] data, int start, int end ) {
+        char[] chars = new char[ end - start ];
+        for( int i = 0; i < chars.length; i++ ) {
+            chars[i] = (char) ( data[ start + i ] & 0xff );
+        }
+        return new String( chars );
+    }
+    
+    static byte[] bytes( String s ) {
+        byte[] b = new byte[ s.length() ];
+        for( int i = 0; i < b.length; i++ ) b[i] = (byte) s.charAt( i );
+        return b;
+    }
+}
@@ -0,0 +1,315 @@
+package org.epistem.graffle;
+
+import static org.epistem.graffle.PListParser.*;
+
+import java.util.List;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Tokenizes the raw bytes of an xml plist and drives a PListParser without
+ * going through a general purpose xml parser. Only the plist tags are
+ * recognized - other elements are passed on as unknown and attributes,
+ * the xml declaration, the doctype and comments are skipped.
+ *
+ * @author nickmain
+ */
+final class PListTokenizer {
+
+    private static final byte[] COMMENT       = bytes( "<!--" );
+    private static final byte[] COMMENT_END   = bytes( "-->" );
+    private static final byte[] CDATA         = bytes( "<![CDATA[" );
+    private static final byte[] CDATA_END     = bytes( "]]>" );
+    private static final byte[] PI_END        = bytes( "?>" );
+    
+    //the tag names as bytes, indexed by tag
+    private static final byte[][] TAG_BYTES = new byte[ TAG_NAMES.length ][];
+    static {
+        for( int i = 0; i < TAG_NAMES.length; i++ ) TAG_BYTES[i] = bytes( TAG_NAMES[i] );
+    }
+    
+    private final byte[] data;
+    private final int end;
+    private final PListParser handler;
+    private int pos;
+    
+    private char[] chars = new char[ 256 ];
+    private int charCount;
+    
+    /**
+     * @param start the start of the range to tokenize
+     * @param end the end (exclusive) of the range to tokenize
+     * @param handler the handler for the tokens
+     */
+    PListTokenizer( byte[] data, int start, int end, PListParser handler ) {
+        this.data    = data;
+        this.pos     = start;
+        this.end     = end;
+        this.handler = handler;
+    }
+    
+    /**
+     * Tokenize the range
+     *
+     * @param deferred the ranges, in order, to be passed to the handler as
+     *                 lazy elements rather than tokenized
+     */
+    void tokenize( List<int[]> deferred ) throws SAXException {
+        int   nextDeferred = 0;
+        int[] deferredRange = deferred.isEmpty() ? null : deferred.get( 0 );
+        
+        while( pos < end ) {
+            if( data[pos] != '<' ) {
+                text();
+                continue;
+            }
+            
+            if( deferredRange != null && pos == deferredRange[0] ) {
+                handler.startTag( LAZY );
+                handler.endTag( LAZY );
+                pos = deferredRange[1];
+                
+                nextDeferred++;
+                deferredRange = nextDeferred < deferred.size() ? deferred.get( nextDeferred ) : null;
+                continue;
+            }
+            
+            if( pos + 1 >= end ) throw error( "Unexpected end of plist" );
+            
+            switch( data[pos + 1] ) {
+                case '/': endTag(); break;
+                case '?': pos = skipPast( pos + 2, PI_END ); break;
+                case '!': markupDeclaration(); break;
+                default:  startTag(); break;
+            }
+        }
+    }
+    
+    //a start tag, or an empty element
+    private void startTag() throws SAXException {
+        int nameStart = pos + 1;
+        int nameEnd   = nameStart;
+        while( nameEnd < end && ! isNameEnd( data[nameEnd] ) ) nameEnd++;
+        
+        //skip any attributes
+        int close = nameEnd;
+        byte quote = 0;
+        for( ; close < end; close++ ) {
+            byte b = data[close];
+            if( quote != 0 ) {
+                if( b == quote ) quote = 0;
+            }
+            else if( b == '"' || b == '\'' ) quote = b;
+            else if( b == '>' ) break;
+        }
+        if( close >= end ) throw error( "Unterminated tag" );
+        
+        int tag = tag( nameStart, nameEnd );
+        handler.startTag( tag );
+        if( data[close - 1] == '/' ) handler.endTag( tag );
+        
+        pos = close + 1;
+    }
+    
+    private void endTag() throws SAXException {
+        int nameStart = pos + 2;
+        int nameEnd   = nameStart;
+        while( nameEnd < end && ! isNameEnd( data[nameEnd] ) ) nameEnd++;
+        
+        int close = nameEnd;
+        while( close < end && data[close] != '>' ) close++;
+        if( close >= end ) throw error( "Unterminated tag" );
+        
+        handler.endTag( tag( nameStart, nameEnd ) );
+        pos = close + 1;
+    }
+    
+    //a comment, cdata section or doctype
+    private void markupDeclaration() throws SAXException {
+        if( PListScanner.matches( data, pos, end, COMMENT ) ) {
+            pos = skipPast( pos + COMMENT.length, COMMENT_END );
+        }
+        else if( PListScanner.matches( data, pos, end, CDATA ) ) {
+            int start = pos + CDATA.length;
+            int close = PListScanner.indexOf( data, start, end, CDATA_END );
+            if( close < 0 ) throw error( "Unterminated CDATA section" );
+            
+            charCount = 0;
+            decode( start, close, false );
+            handler.text( chars, 0, charCount );
+            pos = close + CDATA_END.length;
+        }
+        else {
+            //doctype - which may have an internal subset in brackets
+            int depth = 0;
+            for( pos += 2; pos < end; pos++ ) {
+                byte b = data[pos];
+                if( b == '[' ) depth++;
+                else if( b == ']' ) depth--;
+                else if( b == '>' && depth <= 0 ) break;
+            }
+            pos++;
+        }
+    }
+    
+    //character data up to the next tag
+    private void text() throws SAXException {
+        int start = pos;
+        int close = pos;
+        while( close < end && data[close] != '<' ) close++;
+        
+        charCount = 0;
+        decode( start, close, true );
+        handler.text( chars, 0, charCount );
+        pos = close;
+    }
+    
+    /**
+     * Decode utf-8 bytes into the char buffer, normalizing line ends as an
+     * xml parser would
+     *
+     * @param entities whether to expand entity and character references
+     */
+    private void decode( int start, int close, boolean entities ) throws SAXException {
+        //each byte is at most one char
+        if( chars.length < close - start ) chars = new char[ Math.max( close - start, chars.length * 2 ) ];
+        
+        char[] out = chars;
+        int count  = charCount;
+        int i      = start;
+        
+        while( i < close ) {
+            int b = data[i];
+            
+            //ascii
+            if( b >= 0 ) {
+                if( b == '\r' ) {
+                    out[ count++ ] = '\n';
+                    i++;
+                    if( i < close && data[i] == '\n' ) i++;
+                }
+                else if( b == '&' && entities ) {
+                    charCount = count;
+                    i = entity( i, close );
+                    count = charCount;
+                }
+                else {
+                    out[ count++ ] = (char) b;
+                    i++;
+                }
+                continue;
+            }
+            
+            //multi-byte sequences
+            int codePoint;
+            int length;
+            if     ( ( b & 0xe0 ) == 0xc0 ) { codePoint = b & 0x1f; length = 2; }
+            else if( ( b & 0xf0 ) == 0xe0 ) { codePoint = b & 0x0f; length = 3; }
+            else if( ( b & 0xf8 ) == 0xf0 ) { codePoint = b & 0x07; length = 4; }
+            else throw error( "Invalid UTF-8" );
+            
+            if( i + length > close ) throw error( "Invalid UTF-8" );
+            for( int j = 1; j < length; j++ ) {
+                int next = data[ i + j ];
+                if( ( next & 0xc0 ) != 0x80 ) throw error( "Invalid UTF-8" );
+                codePoint = ( codePoint << 6 ) | ( next & 0x3f );
+            }
+            i += length;
+            
+            if( ! isXMLChar( codePoint ) ) throw error( "Invalid character" );
+            count += Character.toChars( codePoint, out, count );
+        }
+        
+        charCount = count;
+    }
+    
+    /**
+     * Expand the entity or character reference at the given position into
+     * the char buffer
+     *
+     * @return the position after the reference
+     */
+    private int entity( int start, int close ) throws SAXException {
+        int semi = start + 1;
+        while( semi < close && data[semi] != ';' ) semi++;
+        if( semi >= close ) throw error( "Unterminated entity reference" );
+        
+        char c;
+        int nameStart = start + 1;
+        int length    = semi - nameStart;
+        
+        if( length > 1 && data[nameStart] == '#' ) {
+            int codePoint = 0;
+            boolean hex = data[nameStart + 1] == 'x';
+            for( int i = nameStart + ( hex ? 2 : 1 ); i < semi; i++ ) {
+                int digit = Character.digit( (char) data[i], hex ? 16 : 10 );
+                if( digit < 0 ) throw error( "Invalid character reference" );
+                codePoint = codePoint * ( hex ? 16 : 10 ) + digit;
+                if( codePoint > Character.MAX_CODE_POINT ) throw error( "Invalid character reference" );
+            }
+            
+            if( ! isXMLChar( codePoint ) ) throw error( "Invalid character reference" );
+            charCount += Character.toChars( codePoint, chars, charCount );
+            return semi + 1;
+        }
+        else if( is( nameStart, semi, "lt"   ) ) c = '<';
+        else if( is( nameStart, semi, "gt"   ) ) c = '>';
+        else if( is( nameStart, semi, "amp"  ) ) c = '&';
+        else if( is( nameStart, semi, "quot" ) ) c = '"';
+        else if( is( nameStart, semi, "apos" ) ) c = '\'';
+        else throw error( "Unknown entity" );
+        
+        chars[ charCount++ ] = c;
+        return semi + 1;
+    }
+    
+    //whether the bytes are the given ascii name
+    private boolean is( int start, int close, String name ) {
+        if( close - start != name.length() ) return false;
+        for( int i = 0; i < name.length(); i++ ) {
+            if( data[ start + i ] != name.charAt( i ) ) return false;
+        }
+        return true;
+    }
+    
+    //the tag of the element name in the given range
+    private int tag( int start, int close ) {
+        int length = close - start;
+        
+        for( int tag = 0; tag < TAG_BYTES.length; tag++ ) {
+            byte[] name = TAG_BYTES[tag];
+            if( name.length == length && PListScanner.matches( data, start, close, name ) ) return tag;
+        }
+        
+        return UNKNOWN;
+    }
+    
+    //the position after the given terminator
+    private int skipPast( int start, byte[] terminator ) throws SAXException {
+        int close = PListScanner.indexOf( data, start, end, terminator );
+        if( close < 0 ) throw error( "Unterminated markup" );
+        return close + terminator.length;
+    }
+    
+    //whether a code point is allowed in xml text
+    private static boolean isXMLChar( int c ) {
+        return c == '\t' || c == '\n' || c == '\r'
+            || ( c >= 0x20    && c <= 0xd7ff )
+            || ( c >= 0xe000  && c <= 0xfffd )
+            || ( c >= 0x10000 && c <= Character.MAX_CODE_POINT );
+    }
+    
+    private static boolean isNameEnd( byte b ) {
+        return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+    
+    private SAXException error( String message ) {
+        return new SAXException( message + " at byte " + pos );
+    }
+    
+    private static byte[] bytes( String s ) {
+        byte[] b = new byte[ s.length() ];
+        for( int i = 0; i < b.length; i++ ) b[i] = (byte) s.charAt( i );
+        return b;
+    }
+}
@@ -0,0 +1,153 @@
+package org.epistem.graffle;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options controlling how a document is parsed. Options may be shared by
+ * documents loaded on several threads but should not be changed meanwhile.
+ *
+ * @author nickmain
+ */
+public class ParseOptions {
+
+    private boolean lazy;
+    private boolean lazyData;
+    private PListProjection projection;
+    private PListCache cache;
+    private boolean sax;
+    private Executor executor;
+    private boolean indexed;
+    
+    /**
+     * Whether the large arrays of a document (Sheets and GraphicsList) are
+     * only parsed when they are first accessed
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+    
+    /**
+     * Set whether the large arrays of a document (Sheets and GraphicsList)
+     * are only parsed when they are first accessed. The raw document is held
+     * in memory until they have all been parsed.
+     */
+    public void setLazy( boolean lazy ) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Whether data elements are parsed as PListData handles rather than 
+     * byte arrays
+     */
+    public boolean isLazyData() {
+        return lazyData;
+    }
+    
+    /**
+     * Set whether data elements are parsed as PListData handles that are 
+     * only decoded when needed, rather than as byte arrays
+     */
+    public void setLazyData( boolean lazyData ) {
+        this.lazyData = lazyData;
+    }
+
+    /**
+     * Get the projection of the keys to be materialized
+     * 
+     * @return null if everything is materialized
+     */
+    public PListProjection getProjection() {
+        return projection;
+    }
+    
+    /**
+     * Set the projection of the keys to be materialized, such as 
+     * PListProjection.MODEL. Values of other keys are skipped by the xml 
+     * parser. Binary plists are decoded lazily so they ignore the projection.
+     * The projection is frozen so that it cannot change under a parse.
+     * 
+     * @param projection null to materialize everything
+     */
+    public void setProjection( PListProjection projection ) {
+        this.projection = projection != null ? projection.freeze() : null;
+    }
+
+    /**
+     * Get the cache of parsed plists
+     * 
+     * @return null if there is no cache
+     */
+    public PListCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * Set the cache of parsed plists. Files loaded through the cache are
+     * always fully materialized, so the other options do not apply to them.
+     * 
+     * @param cache null for no cache
+     */
+    public void setCache( PListCache cache ) {
+        this.cache = cache;
+    }
+
+    /**
+     * Whether xml plists are parsed with the JAXP SAX parser rather than the
+     * built-in tokenizer
+     */
+    public boolean isSAX() {
+        return sax;
+    }
+    
+    /**
+     * Set whether xml plists are parsed with the JAXP SAX parser rather than
+     * the built-in tokenizer. The tokenizer only understands plists but is
+     * several times faster.
+     */
+    public void setSAX( boolean sax ) {
+        this.sax = sax;
+    }
+
+    /**
+     * Get the executor used to parse the sheets of a document in parallel
+     * 
+     * @return null if documents are parsed on the calling thread
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Set the executor used to parse the sheets of an xml document in 
+     * parallel. Each sheet is parsed as a separate task while the calling
+     * thread parses the rest of the document, and then the calling thread
+     * parses any sheets that the executor has not yet started. So the same
+     * executor can also be used to load the documents themselves - see
+     * OmniGraffleDoc.loadAll(..). Not used when parsing lazily.
+     * 
+     * @param executor null to parse on the calling thread
+     */
+    public void setExecutor( Executor executor ) {
+        this.executor = executor;
+    }
+
+    /**
+     * Whether documents are read through a sidecar index of their sheets and
+     * graphics
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+    
+    /**
+     * Set whether documents are read through a sidecar index of their sheets
+     * and graphics. The index is built on the first read and saved next to
+     * the document. Sheets and graphics are then only read from the file as
+     * they are accessed, and OmniGraffleDoc.getGraphic(..) reads just the 
+     * requested graphic. Indexed documents are not projected or cached, and
+     * binary plists do not use an index.
+     */
+    public void setIndexed( boolean indexed ) {
+        this.indexed = indexed;
+    }
+}
@@ -0,0 +1,204 @@
+package org.epistem.graffle;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the rich text extracted from RTF, keyed by the RTF
+ * itself. Diagrams repeat the same labels and notes many times, so most RTF
+ * is only decoded once - and the plain and rich text share that one parse.
+ *
+ * The cache is split into stripes, each a small LRU with its own lock, so
+ * that threads decoding different RTF seldom contend.
+ *
+ * @author nickmain
+ */
+public final class RTFCache {
+    
+    /**
+     * The cache used for the text and notes of all documents
+     */
+    public static final RTFCache SHARED = new RTFCache( 8192 );
+    
+    private static final int STRIPES = 16;
+    
+    //the number of RTF strings decoded by each task of decodeAll
+    private static final int BATCH_SIZE = 32;
+    
+    private final List<Map<String, RichText>> stripes;
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    /**
+     * @param maxEntries the most entries to retain - the least recently
+     *                   used are dropped beyond that
+     */
+    public RTFCache( int maxEntries ) {
+        final int stripeSize = Math.max( 1, maxEntries / STRIPES );
+        
+        stripes = new ArrayList<Map<String, RichText>>( STRIPES );
+        for( int i = 0; i < STRIPES; i++ ) {
+            stripes.add( new LinkedHashMap<String, RichText>( 16, 0.75f, true ) {
+                @Override
+                protected boolean removeEldestEntry( Map.Entry<String, RichText> eldest ) {
+                    return size() > stripeSize;
+                }
+            });
+        }
+    }
+    
+    /**
+     * Get the plain text of some RTF, without the final newline
+     *
+     * @return null if the RTF is null
+     */
+    public String toText( String rtf ) {
+        RichText richText = richText( rtf );
+        return richText != null ? richText.text : null;
+    }
+    
+    /**
+     * Get the rich text of some RTF, decoding it if it is not in the cache
+     *
+     * @return null if the RTF is null
+     */
+    public RichText richText( String rtf ) {
+        if( rtf == null ) return null;
+        
+        int hash = rtf.hashCode();
+        Map<String, RichText> stripe = stripes.get( ( hash ^ ( hash >>> 16 ) ) & ( STRIPES - 1 ) );
+        
+        RichText text;
+        synchronized( stripe ) {
+            text = stripe.get( rtf );
+        }
+        
+        if( text != null ) {
+            hits.incrementAndGet();
+            return text;
+        }
+        
+        //decode outside the lock - two threads may occasionally both decode
+        misses.incrementAndGet();
+        text = RTFText.parse( rtf );
+        
+        synchronized( stripe ) {
+            stripe.put( rtf, text );
+        }
+        
+        return text;
+    }
+    
+    /**
+     * Decode RTF concurrently, ahead of need. The decoded text is also
+     * added to the cache.
+     *
+     * @param rtfs the RTF to decode - null and duplicates are skipped
+     * @param executor the executor to decode on
+     * @return the rich text, by RTF. If the calling thread is interrupted
+     *         the RTF that is not yet decoded is left out.
+     */
+    public Map<String, RichText> decodeAll( Collection<String> rtfs, Executor executor ) {
+        final Map<String, RichText> decoded = new ConcurrentHashMap<String, RichText>();
+        
+        List<String> distinct = new ArrayList<String>( new LinkedHashSet<String>( rtfs ) );
+        distinct.remove( null );
+        
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+        for( int start = 0; start < distinct.size(); start += BATCH_SIZE ) {
+            final List<String> batch = distinct.subList( start, Math.min( start + BATCH_SIZE, distinct.size() ) );
+            
+            FutureTask<Void> task = new FutureTask<Void>( new Runnable() {
+                public void run() {
+                    for( String rtf : batch ) {
+                        decoded.put( rtf, richText( rtf ) );
+                    }
+                }
+            }, null );
+            
+            tasks.add( task );
+            executor.execute( task );
+        }
+        
+        //the batches not yet started are cancelled if any fails, or if this
+        //thread is interrupted
+        try {
+            for( FutureTask<Void> task : tasks ) {
+                task.get();
+            }
+        }
+        catch( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+        }
+        catch( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if( cause instanceof Error ) throw (Error) cause;
+            throw new RuntimeException( cause );
+        }
+        finally {
+            for( FutureTask<Void> task : tasks ) task.cancel( false );
+        }
+        
+        return decoded;
+    }
+    
+    /**
+     * The number of lookups satisfied from the cache
+     */
+    public long hits() {
+        return hits.get();
+    }
+    
+    /**
+     * The number of lookups that had to decode the RTF
+     */
+    public long misses() {
+        return misses.get();
+    }
+    
+    /**
+     * The fraction of lookups satisfied from the cache
+     */
+    public double hitRate() {
+        long hits  = this.hits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+    
+    /**
+     * The number of entries
+     */
+    public int size() {
+        int size = 0;
+        for( Map<String, RichText> stripe : stripes ) {
+            synchronized( stripe ) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Remove all the entries and reset the statistics
+     */
+    public void clear() {
+        for( Map<String, RichText> stripe : stripes ) {
+            synchronized( stripe ) {
+                stripe.clear();
+            }
+        }
+        hits.set( 0 );
+        misses.set( 0 );
+    }
+    
+    @Override
+    public String toString() {
+        return "RTFCache size=" + size() + " hits=" + hits + " misses=" + misses
+               + " hitRate=" + Math.round( hitRate() * 100 ) + "%";
+    }
+}
@@ -0,0 +1,474 @@
+package org.epistem.graffle;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Extracts the plain text from RTF in a single pass, without building a
+ * styled document. Handles the subset of RTF written by OmniGraffle (and
+ * Cocoa in general) - control words and symbols, groups, destinations,
+ * \\uN unicode escapes and \\'hh escapes - and gives the same text as
+ * RTFEditorKit, except that:
+ *
+ * - \\ansicpgN is honoured, so \\'hh escapes of characters such as smart
+ *   quotes decode to those characters rather than to control characters
+ * - the text of a field result is kept rather than dropped
+ * - a \\'a0 escape gives a non-breaking space rather than nothing
+ *
+ * The font, size, color, bold, italic and underline of the text are
+ * tracked as it is extracted, giving the runs of a RichText.
+ *
+ * @author nickmain
+ */
+final class RTFText {
+    
+    //characters of control words that stand for text
+    private static final Map<String, String> TEXT_WORDS = new HashMap<String, String>();
+    static {
+        TEXT_WORDS.put( "par",       "\n" );
+        TEXT_WORDS.put( "tab",       "\t" );
+        TEXT_WORDS.put( "emdash",    "\u2014" );
+        TEXT_WORDS.put( "endash",    "\u2013" );
+        TEXT_WORDS.put( "emspace",   "\u2003" );
+        TEXT_WORDS.put( "enspace",   "\u2002" );
+        TEXT_WORDS.put( "bullet",    "\u2022" );
+        TEXT_WORDS.put( "lquote",    "\u2018" );
+        TEXT_WORDS.put( "rquote",    "\u2019" );
+        TEXT_WORDS.put( "ldblquote", "\u201c" );
+        TEXT_WORDS.put( "rdblquote", "\u201d" );
+        TEXT_WORDS.put( "ltrmark",   "\u200e" );
+        TEXT_WORDS.put( "rtlmark",   "\u200f" );
+        TEXT_WORDS.put( "zwj",       "\u200d" );
+        TEXT_WORDS.put( "zwnj",      "\u200c" );
+    }
+    
+    //destinations whose text is not part of the document text
+    private static final Set<String> DESTINATIONS = new HashSet<String>( Arrays.asList(
+        "stylesheet", "info", "pict", "fldinst", "footnote",
+        "header", "headerl", "headerr", "headerf", "footer", "footerl", "footerr", "footerf"
+    ));
+    
+    //byte to char tables, by charset name
+    private static final Map<String, char[]> CHARSETS = new ConcurrentHashMap<String, char[]>();
+    private static final char[] LATIN_1 = new char[ 256 ];
+    static {
+        for( int i = 0; i < 256; i++ ) LATIN_1[i] = (char) i;
+    }
+    
+    //where the chars of the current group go
+    private static final int TEXT        = 0;
+    private static final int DISCARD     = 1;
+    private static final int FONT_TABLE  = 2;
+    private static final int COLOR_TABLE = 3;
+    
+    //character format flags
+    private static final int BOLD      = 1;
+    private static final int ITALIC    = 2;
+    private static final int UNDERLINE = 4;
+    
+    private static final int DEFAULT_SIZE = 24; //half points
+    
+    private static final int FRAME = 6; //ints of group state
+    private static final int RUN   = 5; //ints of run state
+    
+    private final String rtf;
+    private final StringBuilder text;
+    private int pos;
+    
+    private char[] charset = LATIN_1;
+    private int    unicodeSkip = 1; //chars to skip after a \\u
+    private int    pendingSkip;     //chars still to be skipped
+    private int    destination = TEXT;
+    private int    depth;
+    
+    //the character format
+    private int defaultFont;
+    private int font;
+    private int size = DEFAULT_SIZE;
+    private int color;
+    private int flags;
+    
+    //the state of the enclosing groups, FRAME ints per group
+    private int[] stack = new int[ FRAME * 8 ];
+    
+    //the font and color tables
+    private final Map<Integer, String> fonts  = new HashMap<Integer, String>();
+    private final List<Color>          colors = new ArrayList<Color>();
+    private final StringBuilder fontName = new StringBuilder();
+    private int     tableFont;
+    private int     red, green, blue;
+    private boolean hasColor;
+    
+    //the start and format of each run, RUN ints per run
+    private int[] runs = new int[ RUN * 4 ];
+    private int   runCount;
+    
+    private RTFText( String rtf ) {
+        this.rtf  = rtf;
+        this.text = new StringBuilder( rtf.length() / 4 );
+    }
+    
+    /**
+     * Extract the text and its character formatting from RTF. The text is
+     * that of RTFEditorKit without the final newline.
+     *
+     * @return null if the RTF is null
+     */
+    static RichText parse( String rtf ) {
+        if( rtf == null ) return null;
+        
+        RTFText parser = new RTFText( rtf );
+        parser.extract();
+        return parser.richText();
+    }
+    
+    private void extract() {
+        int length = rtf.length();
+        
+        while( pos < length ) {
+            char c = rtf.charAt( pos++ );
+            
+            switch( c ) {
+                case '{':
+                    push();
+                    pendingSkip = 0;
+                    break;
+                
+                case '}':
+                    if( depth == 0 ) break;
+                    pop();
+                    pendingSkip = 0;
+                    if( depth == 0 ) pos = length; //the end of the document
+                    break;
+                
+                case '\\':
+                    control();
+                    break;
+                
+                case '\r':
+                case '\n':
+                    break;
+                
+                default:
+                    append( c );
+            }
+        }
+    }
+        
+    private void push() {
+        int i = depth * FRAME;
+        if( i == stack.length ) stack = Arrays.copyOf( stack, i * 2 );
+        
+        stack[ i     ] = unicodeSkip;
+        stack[ i + 1 ] = destination;
+        stack[ i + 2 ] = font;
+        stack[ i + 3 ] = size;
+        stack[ i + 4 ] = color;
+        stack[ i + 5 ] = flags;
+        depth++;
+    }
+    
+    private void pop() {
+        depth--;
+        int i = depth * FRAME;
+        
+        unicodeSkip = stack[ i     ];
+        destination = stack[ i + 1 ];
+        font        = stack[ i + 2 ];
+        size        = stack[ i + 3 ];
+        color       = stack[ i + 4 ];
+        flags       = stack[ i + 5 ];
+    }
+    
+    private void append( char c ) {
+        if( pendingSkip > 0 ) {
+            pendingSkip--;
+            return;
+        }
+        
+        if( depth == 0 ) return;
+        
+        switch( destination ) {
+            case TEXT:
+                startRun();
+                text.append( c );
+                break;
+                
+            case FONT_TABLE:
+                if( c == ';' ) {
+                    fonts.put( tableFont, fontName.toString().trim() );
+                    fontName.setLength( 0 );
+                }
+                else {
+                    fontName.append( c );
+                }
+                break;
+                
+            case COLOR_TABLE:
+                if( c == ';' ) {
+                    colors.add( hasColor ? new Color( red, green, blue ) : null );
+                    red = green = blue = 0;
+                    hasColor = false;
+                }
+                break;
+                
+            default: break;
+        }
+    }
+    
+    private void append( String s ) {
+        if( pendingSkip > 0 ) {
+            pendingSkip--;
+            return;
+        }
+        
+        if( depth > 0 && destination == TEXT ) {
+            startRun();
+            text.append( s );
+        }
+    }
+    
+    //start a new run if the format has changed since the last one
+    private void startRun() {
+        int i = ( runCount - 1 ) * RUN;
+        if( runCount > 0 
+         && runs[ i + 1 ] == font && runs[ i + 2 ] == size
+         && runs[ i + 3 ] == color && runs[ i + 4 ] == flags ) return;
+        
+        i = runCount * RUN;
+        if( i == runs.length ) runs = Arrays.copyOf( runs, i * 2 );
+        
+        runs[ i     ] = text.length();
+        runs[ i + 1 ] = font;
+        runs[ i + 2 ] = size;
+        runs[ i + 3 ] = color;
+        runs[ i + 4 ] = flags;
+        runCount++;
+    }
+    
+    //the text without the final newline, and its runs
+    private RichText richText() {
+        int length = text.length();
+        if( length > 0 && text.charAt( length - 1 ) == '\n' ) length--;
+        
+        List<RichText.Run> runList = new ArrayList<RichText.Run>( runCount );
+        for( int r = 0; r < runCount; r++ ) {
+            int i     = r * RUN;
+            int start = runs[ i ];
+            int end   = r + 1 < runCount ? runs[ i + RUN ] : length;
+            if( start >= length ) break;
+            if( end > length ) end = length;
+            
+            int runColor = runs[ i + 3 ];
+            int runFlags = runs[ i + 4 ];
+            runList.add( new RichText.Run( start, end,
+                                           fonts.get( runs[ i + 1 ] ),
+                                           runs[ i + 2 ] / 2f,
+                                           ( runFlags & BOLD      ) != 0,
+                                           ( runFlags & ITALIC    ) != 0,
+                                           ( runFlags & UNDERLINE ) != 0,
+                                           runColor > 0 && runColor < colors.size() ? colors.get( runColor ) : null ));
+        }
+        
+        return new RichText( text.substring( 0, length ), runList );
+    }
+    
+    //a control word or symbol, after the backslash
+    private void control() {
+        int length = rtf.length();
+        if( pos >= length ) return;
+        
+        char c = rtf.charAt( pos );
+        if( isLetter( c ) ) {
+            int start = pos;
+            while( pos < length && isLetter( rtf.charAt( pos ) ) ) pos++;
+            String word = rtf.substring( start, pos );
+            
+            boolean hasParam = false;
+            boolean negative = false;
+            int     param    = 0;
+            if( pos < length && rtf.charAt( pos ) == '-'
+             && pos + 1 < length && isDigit( rtf.charAt( pos + 1 ) ) ) {
+                negative = true;
+                pos++;
+            }
+            while( pos < length && isDigit( rtf.charAt( pos ) ) ) {
+                hasParam = true;
+                param = param * 10 + ( rtf.charAt( pos++ ) - '0' );
+            }
+            if( negative ) param = -param;
+            
+            //a space delimiting the control word is part of it
+            if( pos < length && rtf.charAt( pos ) == ' ' ) pos++;
+            
+            word( word, hasParam, param );
+            return;
+        }
+        
+        pos++;
+        switch( c ) {
+            case '\\':
+            case '{':
+            case '}':  append( c ); break;
+            case '~':  append( '\u00a0' ); break;
+            case '-':  append( '\u2027' ); break;
+            case '_':  append( '\u2011' ); break;
+            case '*':  destination = DISCARD; break;
+            
+            //an escaped line break is a paragraph break
+            case '\n':
+            case '\r': append( '\n' ); break;
+            
+            case '\'':
+                int high = pos < length ? Character.digit( rtf.charAt( pos ), 16 ) : -1;
+                int low  = pos + 1 < length ? Character.digit( rtf.charAt( pos + 1 ), 16 ) : -1;
+                if( high >= 0 && low >= 0 ) {
+                    pos += 2;
+                    append( charset[ high * 16 + low ] );
+                }
+                break;
+            
+            default: break; //other symbols have no text
+        }
+    }
+    
+    private void word( String word, boolean hasParam, int param ) {
+        //a control word counts as one char when skipping
+        if( pendingSkip > 0 ) {
+            pendingSkip--;
+            return;
+        }
+        
+        if( word.equals( "u" ) ) {
+            if( ! hasParam ) return;
+            append( (char)( param < 0 ? param + 65536 : param ) );
+            pendingSkip = unicodeSkip;
+            return;
+        }
+        
+        String s = TEXT_WORDS.get( word );
+        if( s != null ) {
+            append( s );
+        }
+        else if( word.equals( "uc" ) ) {
+            if( hasParam ) unicodeSkip = param;
+        }
+        else if( word.equals( "fonttbl" ) ) {
+            destination = FONT_TABLE;
+        }
+        else if( word.equals( "colortbl" ) ) {
+            destination = COLOR_TABLE;
+        }
+        else if( DESTINATIONS.contains( word ) ) {
+            destination = DISCARD;
+        }
+        else if( word.equals( "ansi" ) ) {
+            charset = LATIN_1;
+        }
+        else if( word.equals( "ansicpg" ) ) {
+            if( hasParam ) charset = charset( "Cp" + param );
+        }
+        else if( word.equals( "mac" ) ) {
+            charset = charset( "MacRoman" );
+        }
+        else if( word.equals( "pc" ) ) {
+            charset = charset( "Cp437" );
+        }
+        else if( word.equals( "pca" ) ) {
+            charset = charset( "Cp850" );
+        }
+        else {
+            characterFormat( word, hasParam, param );
+        }
+    }
+    
+    //a character format, or a font or color table entry
+    private void characterFormat( String word, boolean hasParam, int param ) {
+        if( word.equals( "f" ) ) {
+            if( destination == FONT_TABLE ) {
+                tableFont = param;
+                fontName.setLength( 0 );
+            }
+            else {
+                font = param;
+            }
+        }
+        else if( word.equals( "deff" ) ) {
+            defaultFont = font = param;
+        }
+        else if( word.equals( "fs" ) ) {
+            size = hasParam ? param : DEFAULT_SIZE;
+        }
+        else if( word.equals( "cf" ) ) {
+            color = param;
+        }
+        else if( word.equals( "b" ) ) {
+            flags = flag( flags, BOLD, ! hasParam || param != 0 );
+        }
+        else if( word.equals( "i" ) ) {
+            flags = flag( flags, ITALIC, ! hasParam || param != 0 );
+        }
+        else if( word.equals( "ul" ) ) {
+            flags = flag( flags, UNDERLINE, ! hasParam || param != 0 );
+        }
+        else if( word.equals( "ulnone" ) ) {
+            flags = flag( flags, UNDERLINE, false );
+        }
+        else if( word.equals( "plain" ) ) {
+            font  = defaultFont;
+            size  = DEFAULT_SIZE;
+            color = 0;
+            flags = 0;
+        }
+        else if( destination == COLOR_TABLE
+              && ( word.equals( "red" ) || word.equals( "green" ) || word.equals( "blue" ) ) ) {
+            int value = Math.max( 0, Math.min( 255, param ) );
+            if     ( word.equals( "red"   ) ) red   = value;
+            else if( word.equals( "green" ) ) green = value;
+            else                              blue  = value;
+            hasColor = true;
+        }
+    }
+    
+    private static int flag( int flags, int flag, boolean on ) {
+        return on ? flags | flag : flags & ~flag;
+    }
+    
+    /**
+     * Get the byte to char table of a charset - bytes that the charset does
+     * not define map to the latin-1 char
+     */
+    private static char[] charset( String name ) {
+        char[] table = CHARSETS.get( name );
+        if( table != null ) return table;
+        
+        table = LATIN_1;
+        try {
+            if( Charset.isSupported( name ) ) {
+                Charset charset = Charset.forName( name );
+                table = new char[ 256 ];
+                for( int i = 0; i < 256; i++ ) {
+                    String s = charset.decode( ByteBuffer.wrap( new byte[] { (byte) i } ) ).toString();
+                    table[i] = ( s.length() == 1 && s.charAt( 0 ) != '\ufffd' ) ? s.charAt( 0 ) : (char) i;
+                }
+            }
+        }
+        catch( IllegalArgumentException ex ) {
+            //an illegal name - use latin-1
+        }
+        
+        CHARSETS.put( name, table );
+        return table;
+    }
+    
+    private static boolean isLetter( char c ) {
+        return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' );
+    }
+    
+    private static boolean isDigit( char c ) {
+        return c >= '0' && c <= '9';
+    }
+}
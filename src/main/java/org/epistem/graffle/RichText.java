@@ -0,0 +1,89 @@
+package org.epistem.graffle;
+
+import java.awt.Color;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Text with its character formatting, held as a list of runs of uniformly
+ * formatted characters. Immutable - instances are shared via the RTFCache.
+ *
+ * @author nickmain
+ */
+public final class RichText {
+    
+    /**
+     * A run of characters with the same formatting
+     */
+    public static final class Run {
+        
+        /** The offset of the first char of the run */
+        public final int start;
+        
+        /** The offset after the last char of the run */
+        public final int end;
+        
+        /** The font name - null if not known */
+        public final String font;
+        
+        /** The font size, in points */
+        public final float size;
+        
+        public final boolean bold;
+        public final boolean italic;
+        public final boolean underline;
+        
+        /** The text color - null for the default */
+        public final Color color;
+        
+        Run( int start, int end, String font, float size,
+             boolean bold, boolean italic, boolean underline, Color color ) {
+            this.start     = start;
+            this.end       = end;
+            this.font      = font;
+            this.size      = size;
+            this.bold      = bold;
+            this.italic    = italic;
+            this.underline = underline;
+            this.color     = color;
+        }
+        
+        @Override
+        public String toString() {
+            return "Run " + start + ".." + end + " font=" + font + " size=" + size
+                   + ( bold ? " bold" : "" ) + ( italic ? " italic" : "" )
+                   + ( underline ? " underline" : "" ) + ( color != null ? " color=" + color : "" );
+        }
+    }
+    
+    /**
+     * The plain text, without a final newline
+     */
+    public final String text;
+    
+    private final List<Run> runs;
+    
+    RichText( String text, List<Run> runs ) {
+        this.text = text;
+        this.runs = Collections.unmodifiableList( runs );
+    }
+    
+    /**
+     * Get the runs, in text order. The runs cover the whole text.
+     */
+    public List<Run> runs() {
+        return runs;
+    }
+    
+    /**
+     * Get the text of a run
+     */
+    public String text( Run run ) {
+        return text.substring( run.start, run.end );
+    }
+    
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,137 @@
+package org.epistem.graffle;
+
+/**
+ * An interning table for the strings of a parsed plist. Strings are looked
+ * up by their characters so that a repeated string does not need to be 
+ * allocated before it is found.
+ * 
+ * Every table starts out holding the common OmniGraffle keys and values,
+ * so those are shared across all parsed documents.
+ *
+ * @author nickmain
+ */
+final class StringTable {
+
+    /**
+     * Strings longer than this are not interned
+     */
+    static final int MAX_LENGTH = 32;
+    
+    //limit on the number of entries, beyond which new strings are not added
+    private static final int MAX_ENTRIES = 1 << 16;
+    
+    private static final String[] VOCABULARY = {
+        //keys
+        "ActiveLayerIndex", "a", "AllowConnections", "Align", "Animate", 
+        "AutoAdjust", "b", "BackgroundGraphic", "Bounds", "CanvasOrigin", 
+        "circoMinDist", "circoSeparation", "Class", "CollapsedSize", "Color", 
+        "ColumnAlign", "ColumnSpacing", "CornerRadius", "CreationDate", 
+        "Creator", "DisplayScale", "Draws", "element", "elements", 
+        "ExportLineEnds", "fill", "FitText", "Flow", "Font", "FontInfo", "g", 
+        "Gap", "GradientColor", "Graphics", "GraphicsList", "GridH", 
+        "GridInfo", "GridV", "GroupConnect", "Head", "HeadArrow", "HeadScale", 
+        "HPages", "ID", "ImageID", "Info", "isSubgraph", "KeepToScale", 
+        "Layer", "Layers", "layoutEngine", "LayoutInfo", "Line", "LineGap", 
+        "LineType", "Lock", "Magnets", "Margins", "ModificationDate", 
+        "Modifier", "Name", "neatoSeparation", "Notes", "NSKern", 
+        "OrthogonalBarAutomatic", "OrthogonalBarPosition", "Orientation", 
+        "OutlineStyle", "Pad", "Path", "Pattern", "point", "Points", 
+        "Position", "Print", "PrintOnePage", "r", "Rotation", "RotationType", 
+        "RowAlign", "RowSpacing", "shadow", "Shape", "SheetTitle", "Sheets", 
+        "ShouldExport", "Size", "SnapsToGrid", "stroke", "Style", "Tail", 
+        "TailArrow", "TailScale", "Text", "TextPlacement", "twopiSeparation", 
+        "UniqueID", "UserInfo", "VerticalPad", "VFlip", "View", "VPages", "w", 
+        "Width", "Wrap",
+        
+        //values
+        "0", "1", "NO", "YES", "ShapedGraphic", "LineGraphic", "Group", 
+        "TableGroup", "SolidGraphic", "Rectangle", "Circle", "Resize", 
+        "Vertical", "FilledArrow", "StickArrow", "Arrow", "NonNavigable", 
+        "UMLInheritance", "Helvetica", "Verdana", "MOVETO", "LINETO"
+    };
+    
+    private static final StringTable SEED = new StringTable( 256 );
+    static {
+        for( String s : VOCABULARY ) SEED.intern( s.toCharArray(), 0, s.length() );
+    }
+    
+    private String[] table;
+    private int count;
+    
+    private StringTable( int capacity ) {
+        table = new String[ capacity ];
+    }
+    
+    /**
+     * Create a table holding the common OmniGraffle vocabulary
+     */
+    StringTable() {
+        table = SEED.table.clone();
+        count = SEED.count;
+    }
+    
+    /**
+     * Get the interned string for a range of characters. Ranges longer than
+     * MAX_LENGTH are returned as a new string.
+     * 
+     * @param chars the characters
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     */
+    String intern( char[] chars, int start, int end ) {
+        int length = end - start;
+        if( length > MAX_LENGTH ) return new String( chars, start, length );
+        
+        int hash = 0;
+        for( int i = start; i < end; i++ ) {
+            hash = 31 * hash + chars[i];
+        }
+        
+        int mask  = table.length - 1;
+        int index = mix( hash ) & mask;
+        
+        for( String s = table[index]; s != null; s = table[index] ) {
+            if( s.hashCode() == hash && matches( s, chars, start, length ) ) return s;
+            index = ( index + 1 ) & mask;
+        }
+        
+        String s = new String( chars, start, length );
+        if( count >= MAX_ENTRIES ) return s;
+        
+        table[index] = s;
+        if( ++count * 2 > table.length ) grow();
+        
+        return s;
+    }
+    
+    private static boolean matches( String s, char[] chars, int start, int length ) {
+        if( s.length() != length ) return false;
+        
+        for( int i = 0; i < length; i++ ) {
+            if( s.charAt( i ) != chars[ start + i ] ) return false;
+        }
+        
+        return true;
+    }
+    
+    private void grow() {
+        String[] old = table;
+        table = new String[ old.length * 2 ];
+        int mask = table.length - 1;
+        
+        for( String s : old ) {
+            if( s == null ) continue;
+            
+            int index = mix( s.hashCode() ) & mask;
+            while( table[index] != null ) index = ( index + 1 ) & mask;
+            table[index] = s;
+        }
+    }
+    
+    //spread the bits of the string hash since the table is a power of two
+    private static int mix( int hash ) {
+        hash ^= ( hash >>> 16 );
+        hash *= 0x85ebca6b;
+        return hash ^ ( hash >>> 13 );
+    }
+}
@@ -7,10 +7,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
 
+import org.epistem.graffle.OGGeometry;
 import org.epistem.graffle.OGGraphic;
 import org.epistem.graffle.OGSheet;
+import org.epistem.graffle.OGTableLayout;
 import org.epistem.graffle.OmniGraffleDoc;
 import org.epistem.graffle.OGGraphic.GraphicClass;
+import org.epistem.util.IntMap;
+import org.epistem.util.SpatialIndex;
 
 import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
 import com.hp.hpl.jena.rdf.model.*;
@@ -132,8 +136,8 @@ public class GraffleToRDF {
         }        
     }
     
-    private final Map<Integer, Collection<OGGraphic>> headLines = new HashMap<Integer, Collection<OGGraphic>>(); 
-    private final Map<Integer, Collection<OGGraphic>> tailLines = new HashMap<Integer, Collection<OGGraphic>>(); 
+    private final IntMap<Collection<OGGraphic>> headLines = new IntMap<Collection<OGGraphic>>(); 
+    private final IntMap<Collection<OGGraphic>> tailLines = new IntMap<Collection<OGGraphic>>(); 
     
     private Resource translate( OGSheet sheet ) {        
         Resource res = model.createResource();
@@ -143,7 +147,7 @@ public class GraffleToRDF {
             model.add( res, prop( og_child ), translate( graphic ) );
         }
         
-        computeIntersections( sheet.graphics() );
+        computeIntersections( sheet );
         createCommonNoteLineLists();
         
         return res;
@@ -160,10 +164,10 @@ public class GraffleToRDF {
         tailLines.clear();
     }
     
-    private void makeLineLists( Map<Integer, Collection<OGGraphic>> lineMap, Property propFirst, Property propNext ) {
-        for( Integer targetId : lineMap.keySet() ) {
-            Collection<OGGraphic> lines = lineMap.get( targetId );
-            Resource target = graphic( targetId );
+    private void makeLineLists( IntMap<Collection<OGGraphic>> lineMap, Property propFirst, Property propNext ) {
+        for( int i = 0; i < lineMap.size(); i++ ) {
+            Collection<OGGraphic> lines = lineMap.valueAt( i );
+            Resource target = graphic( lineMap.keyAt( i ) );
             
             Map<String, Collection<OGGraphic>> linesByNote = collectLinesByNote( lines );
             
@@ -208,20 +212,38 @@ public class GraffleToRDF {
         return linesByNote;
     }
     
-    private void computeIntersections( List<OGGraphic> graphics ) {
-        for( OGGraphic g : graphics ) {
-            for( OGGraphic h : graphics ) {
-                if( g == h ) continue;
+    private void computeIntersections( OGSheet sheet ) {
+        final List<OGGraphic> graphics = sheet.graphics();
+        OGGeometry geometry = sheet.geometry();
+        
+        int count = graphics.size();
+        double[] x      = new double[ count ];
+        double[] y      = new double[ count ];
+        double[] width  = new double[ count ];
+        double[] height = new double[ count ];
+        for( int i = 0; i < count; i++ ) {
+            int slot = geometry.slot( graphics.get( i ) );
+            x     [i] = geometry.x( slot );
+            y     [i] = geometry.y( slot );
+            width [i] = geometry.width( slot );
+            height[i] = geometry.height( slot );
+        }
+        
+        final SpatialIndex index = new SpatialIndex( x, y, width, height );
+        index.overlappingPairs( new SpatialIndex.PairVisitor() {
+            public void visit( int a, int b ) {
+                Resource resA = graphic( graphics.get( a ).id() );
+                Resource resB = graphic( graphics.get( b ).id() );
                 
-                if( g.bounds().intersects( h.bounds() )) {
-                    model.add( graphic( g.id() ), prop( og_intersects ), graphic( h.id() ) );
+                if( index.intersects( a, b ) ) {
+                    model.add( resA, prop( og_intersects ), resB );
+                    model.add( resB, prop( og_intersects ), resA );
                 }
                 
-                if( g.bounds().contains( h.bounds() ) ) {
-                    model.add( graphic( g.id() ), prop( og_contains ), graphic( h.id() ) );
-                }
+                if( index.contains( a, b ) ) model.add( resA, prop( og_contains ), resB );
+                if( index.contains( b, a ) ) model.add( resB, prop( og_contains ), resA );
             }
-        }
+        });
     }
     
     private void wireUp( Resource shape, String text, String note ) {
@@ -325,7 +347,8 @@ public class GraffleToRDF {
                 List<OGGraphic> kids = graphic.graphics();
                 
                 if( graphic.isSubgraph() ) {
-                    OGGraphic bg = kids.remove( kids.size() - 1 );
+                    OGGraphic bg = kids.get( kids.size() - 1 );
+                    kids = kids.subList( 0, kids.size() - 1 );
                     model.add( res, prop( og_background ), translate( bg ) );
                 }
                 
@@ -340,9 +363,9 @@ public class GraffleToRDF {
                     model.add( res, prop( og_cell ), translate( cell ) );
                 }
                 
-                OGGraphic[][] table = graphic.table();
-                int rowSize  = table.length;
-                int rowCount = table[0].length;
+                OGTableLayout table = graphic.tableLayout();
+                int rowSize  = table.columnCount();
+                int rowCount = table.rowCount();
                 
                 model.add( res, prop( og_rowCount ), ""+rowCount, XSDDatatype.XSDinteger );                        
                 model.add( res, prop( og_colCount ), ""+rowSize, XSDDatatype.XSDinteger );                        
@@ -360,7 +383,8 @@ public class GraffleToRDF {
                     
                     Resource prevCell = null;
                     for( int x = 0; x < rowSize; x++ ) {
-                        Resource cell = translate( table[x][y] );
+                        if( table.cell( y, x ) == null ) continue;
+                        Resource cell = translate( table.cell( y, x ) );
                         
                         if( prevCell != null ) {
                             model.add( prevCell, prop( og_right ), cell );
@@ -392,7 +416,8 @@ public class GraffleToRDF {
 
                     Resource prevCell = null;
                     for( int y = 0; y < rowCount; y++ ) {
-                        Resource cell = graphic( table[x][y].id() );
+                        if( table.cell( y, x ) == null ) continue;
+                        Resource cell = graphic( table.cell( y, x ).id() );
                         
                         if( prevCell != null ) {
                             model.add( prevCell, prop( og_down ), cell );
@@ -414,7 +439,7 @@ public class GraffleToRDF {
                 break;
                 
             default:
-                if( graphic.strokePattern() == 0 ) {
+                if( graphic.style().solid ) {
                     model.add( res, prop( og_stroke ), ogSolid() );
                 }
                 else {
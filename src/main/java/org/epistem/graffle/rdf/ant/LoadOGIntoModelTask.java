@@ -1,9 +1,15 @@
 package org.epistem.graffle.rdf.ant;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.epistem.graffle.OmniGraffleDoc;
+import org.epistem.graffle.PListCache;
+import org.epistem.graffle.RTFCache;
+import org.epistem.graffle.ParseOptions;
 import org.epistem.graffle.rdf.GraffleToRDF;
 
 import com.hp.hpl.jena.rdf.model.Model;
@@ -15,7 +21,11 @@ import com.hp.hpl.jena.rdf.model.Model;
  */
 public class LoadOGIntoModelTask extends RDFModelBaseTask {
 
+    //caches shared by all tasks in the build, by directory
+    private static final Map<File, PListCache> caches = new HashMap<File, PListCache>();
+    
     private File ogFile;
+    private File cacheDir;
     
     /**
      * Set the OG file to read
@@ -23,15 +33,34 @@ public class LoadOGIntoModelTask extends RDFModelBaseTask {
     public void setFile( File ogFile ) {
         this.ogFile = ogFile;
     }
+
+    /**
+     * Set the directory in which to cache parsed OG files
+     */
+    public void setCacheDir( File cacheDir ) {
+        this.cacheDir = cacheDir;
+    }
     
     /** @see org.epistem.graffle.rdf.ant.RDFModelBaseTask#execute(com.hp.hpl.jena.rdf.model.Model) */
     @Override
     protected void execute( Model model ) throws Exception {
         if( ogFile == null ) throw new BuildException( "File is required" );
         
-        OmniGraffleDoc doc = new OmniGraffleDoc( ogFile );
+        ParseOptions options = new ParseOptions();
+        PListCache cache = null;
+        if( cacheDir != null ) {
+            synchronized( caches ) {
+                cache = caches.get( cacheDir );
+                if( cache == null ) caches.put( cacheDir, cache = new PListCache( cacheDir ) );
+            }
+            options.setCache( cache );
+        }
+        
+        OmniGraffleDoc doc = new OmniGraffleDoc( ogFile, options );
 
         log( "Loading OG doc " + ogFile.getName() + " into RDF model '" + modelName + "'" );
+        if( cache != null ) log( cache.toString() );
         new GraffleToRDF( doc, model );
+        log( RTFCache.SHARED.toString(), Project.MSG_VERBOSE );
     }
 }
@@ -33,6 +33,7 @@
  ****************************************************************/
 package org.epistem.util;
 import java.io.*;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -57,15 +58,86 @@ public class Base64
     
     protected static Map<Character, Integer> charLookup = new HashMap<Character, Integer>();
     
+    //six-bit values indexed by ascii char, -1 for invalid chars
+    protected static final int[] sixbitLookup = new int[ 128 ];
+    
     static  //initialize the hashtable
     {
+        Arrays.fill( sixbitLookup, -1 );
+        
         for( int i = 0; i < charset.length; i++ )
         {
             charLookup.put( new Character( charset[i] ),
                             new Integer( i ) );
+            sixbitLookup[ charset[i] ] = i;
         }
     }
     
+    /**
+     * Get the number of bytes that a run of base64 chars decodes to
+     * 
+     * @param ascii the base64 chars as ascii bytes, without whitespace
+     */
+    public static int decodedLength( byte[] ascii, int start, int length )
+    {
+        int padding = 0;
+        
+        while( padding < 2 && padding < length 
+               && ascii[ start + length - 1 - padding ] == paddingChar ) padding++;
+        
+        return ( length / 4 ) * 3 - padding;
+    }
+    
+    /**
+     * Decode a run of base64 chars held as ascii bytes
+     * 
+     * @param ascii the base64 chars as ascii bytes, without whitespace
+     */
+    public static void decode( byte[] ascii, int start, int length, OutputStream out )
+        throws IOException
+    {
+        if( length % 4 != 0 )
+            throw new IOException( "Incomplete character quartet at end of Base64 input" );
+        
+        byte[] buffer = new byte[ 3 * 1024 ];
+        int count = 0;
+        int end   = start + length;
+        
+        for( int i = start; i < end; i += 4 )
+        {
+            int b0 = sixbit( ascii[i] );
+            int b1 = sixbit( ascii[i+1] );
+            int b2 = ascii[i+2] == paddingChar && i + 4 == end ? -1 : sixbit( ascii[i+2] );
+            int b3 = ascii[i+3] == paddingChar && i + 4 == end ? -1 : sixbit( ascii[i+3] );
+            
+            if( b2 < 0 && b3 >= 0 )
+                throw new IOException( "Invalid padding in Base64 data" );
+            
+            if( count + 3 > buffer.length )
+            {
+                out.write( buffer, 0, count );
+                count = 0;
+            }
+            
+            buffer[ count++ ] = (byte)( ( b0 << 2 ) | ( b1 >> 4 ) );
+            if( b2 >= 0 ) buffer[ count++ ] = (byte)( ( b1 << 4 ) | ( b2 >> 2 ) );
+            if( b3 >= 0 ) buffer[ count++ ] = (byte)( ( b2 << 6 ) | b3 );
+        }
+        
+        out.write( buffer, 0, count );
+    }
+    
+    private static int sixbit( byte ascii )
+        throws IOException
+    {
+        int value = ascii < 0 ? -1 : sixbitLookup[ ascii ];
+        
+        if( value < 0 )
+            throw new IOException( "Invalid char (" + (char)( ascii & 0xff ) + ") in Base64 data" );
+        
+        return value;
+    }
+    
     public static void decode( Reader in, OutputStream out )
         throws Exception
     {
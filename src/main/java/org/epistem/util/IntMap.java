@@ -0,0 +1,174 @@
+package org.epistem.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A map from primitive int keys to non-null values, using open addressing
+ * so that keys are never boxed. Entries are kept in insertion order and
+ * cannot be removed individually.
+ *
+ * @author nickmain
+ */
+@SuppressWarnings("unchecked")
+public final class IntMap<V> {
+    
+    private int[]    keys;   //in insertion order
+    private Object[] values; //in insertion order
+    private int[]    table;  //entry index + 1, zero for an empty bucket
+    private int      size;
+    
+    public IntMap() {
+        this( 16 );
+    }
+    
+    /**
+     * @param expectedSize the number of entries expected
+     */
+    public IntMap( int expectedSize ) {
+        int capacity = Math.max( 4, expectedSize );
+        keys   = new int[ capacity ];
+        values = new Object[ capacity ];
+        table  = new int[ tableSize( capacity ) ];
+    }
+    
+    //a power of two no more than half full
+    private static int tableSize( int capacity ) {
+        int n = 8;
+        while( n < capacity * 2 ) n <<= 1;
+        return n;
+    }
+    
+    //spread the bits of sequential ids
+    private static int hash( int key ) {
+        int h = key * 0x9E3779B9;
+        return h ^ ( h >>> 16 );
+    }
+    
+    //the bucket holding the key, or the empty bucket where it would go
+    private int bucket( int key ) {
+        int mask = table.length - 1;
+        int i    = hash( key ) & mask;
+        
+        while( true ) {
+            int entry = table[i];
+            if( entry == 0 || keys[ entry - 1 ] == key ) return i;
+            i = ( i + 1 ) & mask;
+        }
+    }
+    
+    /**
+     * Get the value for a key
+     * @return null if there is none
+     */
+    public V get( int key ) {
+        int entry = table[ bucket( key ) ];
+        return entry == 0 ? null : (V) values[ entry - 1 ];
+    }
+    
+    /**
+     * Whether there is a value for a key
+     */
+    public boolean containsKey( int key ) {
+        return table[ bucket( key ) ] != 0;
+    }
+    
+    /**
+     * Set the value for a key. A replaced value keeps its place in the
+     * insertion order.
+     *
+     * @return the previous value, null if none
+     */
+    public V put( int key, V value ) {
+        if( value == null ) throw new IllegalArgumentException( "null value for key " + key );
+        
+        int i     = bucket( key );
+        int entry = table[i];
+        if( entry != 0 ) {
+            V old = (V) values[ entry - 1 ];
+            values[ entry - 1 ] = value;
+            return old;
+        }
+        
+        if( size == keys.length ) {
+            grow();
+            i = bucket( key );
+        }
+        
+        keys  [ size ] = key;
+        values[ size ] = value;
+        table [ i ]    = ++size;
+        return null;
+    }
+    
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys   = Arrays.copyOf( keys, capacity );
+        values = Arrays.copyOf( values, capacity );
+        table  = new int[ tableSize( capacity ) ];
+        
+        int mask = table.length - 1;
+        for( int entry = 0; entry < size; entry++ ) {
+            int i = hash( keys[ entry ] ) & mask;
+            while( table[i] != 0 ) i = ( i + 1 ) & mask;
+            table[i] = entry + 1;
+        }
+    }
+    
+    /**
+     * The number of entries
+     */
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Remove all the entries
+     */
+    public void clear() {
+        Arrays.fill( values, 0, size, null );
+        Arrays.fill( table, 0 );
+        size = 0;
+    }
+    
+    /**
+     * Get the key of the entry at the given position in the insertion order
+     */
+    public int keyAt( int index ) {
+        if( index >= size ) throw new IndexOutOfBoundsException( "" + index );
+        return keys[ index ];
+    }
+    
+    /**
+     * Get the value of the entry at the given position in the insertion order
+     */
+    public V valueAt( int index ) {
+        if( index >= size ) throw new IndexOutOfBoundsException( "" + index );
+        return (V) values[ index ];
+    }
+    
+    /**
+     * Get a read-only view of the values, in insertion order
+     */
+    public List<V> values() {
+        return new AbstractList<V>() {
+            @Override public V get( int index ) { return valueAt( index ); }
+            @Override public int size() { return size; }
+        };
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder buff = new StringBuilder( "{" );
+        for( int i = 0; i < size; i++ ) {
+            if( i > 0 ) buff.append( ", " );
+            buff.append( keys[i] ).append( "=" ).append( values[i] );
+        }
+        return buff.append( "}" ).toString();
+    }
+}
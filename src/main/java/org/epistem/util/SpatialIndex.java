@@ -0,0 +1,274 @@
+package org.epistem.util;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of rectangles, by position, that finds the pairs that intersect
+ * by sweeping across them in order of their left edges - only rectangles
+ * that overlap in x are compared, so n rectangles with k intersecting
+ * pairs take roughly O(n log n + k) rather than O(n^2).
+ *
+ * The intersects and contains tests have the same results as those of
+ * Rectangle2D. The sweep visits the pairs that intersect and the pairs
+ * where one contains the other - usually the same pairs, but a rectangle
+ * whose width is lost to rounding can be contained without intersecting -
+ * and the visitor tests which of those it is interested in.
+ *
+ * Region queries look only at the rectangles whose left edges fall in the
+ * range that could match, found by binary search.
+ *
+ * @author nickmain
+ */
+public final class SpatialIndex {
+    
+    /**
+     * Receives pairs of rectangles, by index
+     */
+    public static interface PairVisitor {
+        public void visit( int a, int b );
+    }
+    
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+    private final boolean[] empty;
+    
+    private final int[]    order;     //the rectangles that can match anything, by left edge
+    private final double[] edges;     //the left edges of those, in the same order
+    private final double   maxExtent; //the greatest width of those
+    
+    /**
+     * @param bounds the rectangles, indexed by position in the list
+     */
+    public SpatialIndex( List<? extends Rectangle2D> bounds ) {
+        int size = bounds.size();
+        minX = new double[ size ];
+        minY = new double[ size ];
+        maxX = new double[ size ];
+        maxY = new double[ size ];
+        empty = new boolean[ size ];
+        
+        for( int i = 0; i < size; i++ ) {
+            Rectangle2D r = bounds.get( i );
+            minX [i] = r.getX();
+            minY [i] = r.getY();
+            maxX [i] = r.getX() + r.getWidth();
+            maxY [i] = r.getY() + r.getHeight();
+            empty[i] = r.getWidth() <= 0 || r.getHeight() <= 0;
+        }
+        
+        edges     = sortedEdges();
+        order     = order( edges );
+        maxExtent = maxExtent();
+    }
+    
+    /**
+     * @param x the left edges of the rectangles
+     * @param y the top edges
+     * @param width the widths
+     * @param height the heights
+     */
+    public SpatialIndex( double[] x, double[] y, double[] width, double[] height ) {
+        int size = x.length;
+        minX = x.clone();
+        minY = y.clone();
+        maxX = new double[ size ];
+        maxY = new double[ size ];
+        empty = new boolean[ size ];
+        
+        for( int i = 0; i < size; i++ ) {
+            maxX [i] = x[i] + width [i];
+            maxY [i] = y[i] + height[i];
+            empty[i] = width[i] <= 0 || height[i] <= 0;
+        }
+        
+        edges     = sortedEdges();
+        order     = order( edges );
+        maxExtent = maxExtent();
+    }
+    
+    //the left edges of the rectangles that can match anything, sorted
+    private double[] sortedEdges() {
+        int size = minX.length;
+        double[] edges = new double[ size ];
+        int count = 0;
+        for( int i = 0; i < size; i++ ) {
+            if( ! isInert( i ) ) edges[ count++ ] = minX[i];
+        }
+        edges = Arrays.copyOf( edges, count );
+        Arrays.sort( edges );
+        return edges;
+    }
+    
+    //order the rectangles that can match anything by left edge, without
+    //boxing - each key holds the rank of the edge in the high word and the
+    //index in the low
+    private int[] order( double[] edges ) {
+        int size = minX.length;
+        long[] keys = new long[ edges.length ];
+        int count = 0;
+        for( int i = 0; i < size; i++ ) {
+            if( isInert( i ) ) continue;
+            keys[ count++ ] = ( ((long) Arrays.binarySearch( edges, minX[i] )) << 32 ) | i;
+        }
+        Arrays.sort( keys );
+        
+        int[] order = new int[ count ];
+        for( int i = 0; i < count; i++ ) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+    
+    //the greatest width of the rectangles that can match anything
+    private double maxExtent() {
+        double max = 0;
+        for( int i = 0; i < minX.length; i++ ) {
+            if( isInert( i ) ) continue;
+            
+            double extent = maxX[i] - minX[i];
+            if( extent > max ) max = extent;
+        }
+        return max;
+    }
+    
+    //whether a rectangle can match nothing - it is empty or has a NaN edge
+    private boolean isInert( int i ) {
+        return empty[i] 
+            || Double.isNaN( minX[i] ) || Double.isNaN( minY[i] ) 
+            || Double.isNaN( maxX[i] ) || Double.isNaN( maxY[i] );
+    }
+    
+    /**
+     * The number of rectangles
+     */
+    public int size() {
+        return minX.length;
+    }
+    
+    /**
+     * Whether a rectangle has no area - empty rectangles intersect nothing
+     */
+    public boolean isEmpty( int i ) {
+        return empty[i];
+    }
+    
+    /**
+     * Whether rectangle a intersects rectangle b
+     */
+    public boolean intersects( int a, int b ) {
+        if( isEmpty( a ) || isEmpty( b ) ) return false;
+        
+        return maxX[b] > minX[a]
+            && maxY[b] > minY[a]
+            && minX[b] < maxX[a]
+            && minY[b] < maxY[a];
+    }
+    
+    /**
+     * Whether rectangle a contains rectangle b
+     */
+    public boolean contains( int a, int b ) {
+        if( isEmpty( a ) || isEmpty( b ) ) return false;
+        
+        return minX[b] >= minX[a]
+            && minY[b] >= minY[a]
+            && maxX[b] <= maxX[a]
+            && maxY[b] <= maxY[a];
+    }
+    
+    /**
+     * Visit each pair of rectangles that intersect, or where one contains
+     * the other, once and in no particular order
+     */
+    public void overlappingPairs( PairVisitor visitor ) {
+        int[] active = new int[ 16 ]; //rectangles that may reach the sweep line
+        int activeCount = 0;
+        
+        for( int b : order ) {
+            double left = minX[b];
+            int kept = 0;
+            
+            for( int i = 0; i < activeCount; i++ ) {
+                int a = active[i];
+                if( maxX[a] < left ) continue; //behind the sweep line
+                
+                active[ kept++ ] = a;
+                if( intersects( a, b ) || contains( a, b ) || contains( b, a ) ) {
+                    visitor.visit( a, b );
+                }
+            }
+            
+            if( kept == active.length ) active = Arrays.copyOf( active, kept * 2 );
+            active[ kept++ ] = b;
+            activeCount = kept;
+        }
+    }
+    
+    /**
+     * Get the rectangles that an area contains, as Rectangle2D.contains does
+     * @return the indices of the rectangles, by left edge
+     */
+    public int[] within( Rectangle2D area ) {
+        if( area.getWidth() <= 0 || area.getHeight() <= 0 ) return new int[ 0 ];
+        
+        double left   = area.getX();
+        double top    = area.getY();
+        double right  = left + area.getWidth();
+        double bottom = top  + area.getHeight();
+        
+        int[] found = new int[ 8 ];
+        int count = 0;
+        for( int k = firstAtLeast( left ); k < order.length && edges[k] <= right; k++ ) {
+            int i = order[k];
+            if( minY[i] >= top && maxX[i] <= right && maxY[i] <= bottom ) {
+                if( count == found.length ) found = Arrays.copyOf( found, count * 2 );
+                found[ count++ ] = i;
+            }
+        }
+        
+        return Arrays.copyOf( found, count );
+    }
+    
+    /**
+     * Get the rectangles that contain a point, as Rectangle2D.contains does
+     * @return the indices of the rectangles, by left edge
+     */
+    public int[] containing( Point2D point ) {
+        double x = point.getX();
+        double y = point.getY();
+        
+        //no rectangle starting further left than the widest one can reach
+        //the point - with some slack for rounding
+        double reach = maxExtent + 4 * Math.ulp( Math.abs( x ) + maxExtent );
+        
+        int[] found = new int[ 8 ];
+        int count = 0;
+        for( int k = firstAtLeast( x - reach ); k < order.length && edges[k] <= x; k++ ) {
+            int i = order[k];
+            if( y >= minY[i] && x < maxX[i] && y < maxY[i] ) {
+                if( count == found.length ) found = Arrays.copyOf( found, count * 2 );
+                found[ count++ ] = i;
+            }
+        }
+        
+        return Arrays.copyOf( found, count );
+    }
+    
+    //the position in the order of the first left edge that is not less
+    //than the value
+    private int firstAtLeast( double value ) {
+        int low  = 0;
+        int high = edges.length;
+        while( low < high ) {
+            int mid = ( low + high ) >>> 1;
+            if( edges[ mid ] < value ) low = mid + 1;
+            else                       high = mid;
+        }
+        return low;
+    }
+}